@@ -1,96 +1,1976 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Operations an ATM session performs on one account, whether it is held in memory by a
+ * {@link BankAccount} or stored in a {@link Bank}. Amounts are in cents; the dollar methods
+ * convert with {@link BankAccount#toCents(double)}.
+ */
+interface Account {
+    /**
+     * Returns the current account balance in cents.
+     * @return The current balance in cents.
+     */
+    long getBalanceCents();
+
+    /**
+     * Deposits a specified number of cents into the account.
+     * @param cents The amount to deposit, in cents.
+     * @return true if deposit was successful, false if the amount is not positive
+     *         or the balance would overflow.
+     */
+    boolean depositCents(long cents);
+
+    /**
+     * Withdraws a specified number of cents from the account.
+     * @param cents The amount to withdraw, in cents.
+     * @return true if withdrawal was successful, false if the amount is not positive
+     *         or exceeds the balance.
+     */
+    boolean withdrawCents(long cents);
+
+    /**
+     * Returns the current account balance.
+     * @return The current balance.
+     */
+    default double getBalance() {
+        return getBalanceCents() / 100.0;
+    }
+
+    /**
+     * Deposits a specified amount into the account.
+     * @param amount The amount to deposit.
+     * @return true if deposit was successful, false otherwise.
+     */
+    default boolean deposit(double amount) {
+        return depositCents(BankAccount.toCents(amount));
+    }
+
+    /**
+     * Withdraws a specified amount from the account.
+     * Includes validation to ensure sufficient funds.
+     * @param amount The amount to withdraw.
+     * @return true if withdrawal was successful, false otherwise.
+     */
+    default boolean withdraw(double amount) {
+        return withdrawCents(BankAccount.toCents(amount));
+    }
+}
 
 /**
  * Class representing a user's bank account.
  * It manages the balance and provides methods for transactions.
+ * <p>
+ * The balance is held as a whole number of cents in an {@link AtomicLong}, and every
+ * update is a compare-and-set loop, so concurrent sessions can share one account
+ * without a lock: a withdrawal checks and debits the same observed balance, so it can
+ * never overdraw, and no deposit is ever lost to a racing update.
+ */
+class BankAccount implements Account {
+    /** Largest amount, in dollars, that converts to cents without overflowing a long. */
+    private static final double MAX_AMOUNT = Long.MAX_VALUE / 100.0;
+
+    private final AtomicLong balanceCents;
+
+    /**
+     * Initializes the account with a starting balance.
+     * @param initialBalance The starting amount in the account.
+     */
+    public BankAccount(double initialBalance) {
+        long cents = toCents(initialBalance);
+        if (cents >= 0) {
+            this.balanceCents = new AtomicLong(cents);
+        } else {
+            // Start with 0 if an invalid initial balance is provided
+            this.balanceCents = new AtomicLong();
+            System.out.println("Warning: Initial balance must be non-negative. Set to 0.00.");
+        }
+    }
+
+    @Override
+    public long getBalanceCents() {
+        return balanceCents.get();
+    }
+
+    @Override
+    public boolean depositCents(long cents) {
+        if (cents <= 0) {
+            return false;
+        }
+        while (true) {
+            long current = balanceCents.get();
+            long updated = current + cents;
+            if (updated < current) {
+                return false;
+            }
+            if (balanceCents.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The funds check and the debit apply to the same observed balance.
+     */
+    @Override
+    public boolean withdrawCents(long cents) {
+        if (cents <= 0) {
+            return false;
+        }
+        while (true) {
+            long current = balanceCents.get();
+            if (cents > current) {
+                return false;
+            }
+            if (balanceCents.compareAndSet(current, current - cents)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Converts a dollar amount to whole cents, rounding to the nearest cent.
+     * @param amount The amount in dollars.
+     * @return The amount in cents, or -1 if it is not a finite amount a long can hold.
+     */
+    static long toCents(double amount) {
+        if (Double.isNaN(amount) || Math.abs(amount) >= MAX_AMOUNT) {
+            return -1;
+        }
+        return Math.round(amount * 100.0);
+    }
+}
+
+/**
+ * Append-only, memory-mapped journal of bank transactions.
+ * <p>
+ * Every successful account opening, deposit, withdrawal and transfer appends one fixed-size
+ * record: [type:4][account:4][other:4][cents:8][check:4]. The file is mapped in 12 MiB
+ * segments, so an append is a handful of stores into memory under a short lock, with no
+ * system call. Appends are numbered by a log sequence number (LSN).
+ * <p>
+ * Durability uses group commit: one flusher thread forces the mapped pages to disk. Under the
+ * GROUP policy each transaction waits until a force covers its LSN. Every transaction that
+ * arrives while a force is running is covered by the next one, so the number of disk syncs
+ * follows what the device can do, not the transaction rate. The first record slot holds a
+ * header with the journal id; snapshots record the first journal id they do not include.
+ * A torn record at the tail (crash mid-append) fails its check and ends the replay.
+ * <p>
+ * A checkpoint seals the journal in two steps. {@link #seal()}, called while every account is
+ * locked, only switches appends to a journal file created ahead of time by {@link #prepareNext()}.
+ * {@link #finishSeal()} then forces, closes and renames the sealed file with the locks released.
+ */
+class BankJournal {
+    /** When appended records are forced to stable storage. */
+    enum FsyncPolicy {
+        GROUP, // group commit: a transaction returns once a shared fsync covers it
+        BATCH, // one background fsync per sync interval; transactions do not wait
+        NONE   // leave it to the operating system
+    }
+
+    /** Applies one replayed record. */
+    interface Replayer {
+        void apply(int type, int account, int other, long cents) throws IOException;
+    }
+
+    static final int OPEN = 1;
+    static final int DEPOSIT = 2;
+    static final int WITHDRAW = 3;
+    static final int TRANSFER = 4;
+
+    private static final int RECORD_BYTES = 24;
+    private static final int MAGIC = 0x424A4E4C; // "BJNL"
+    private static final int VERSION = 1;
+    private static final int RECORDS_PER_SEGMENT = 1 << 19;
+    private static final long SEGMENT_BYTES = (long) RECORDS_PER_SEGMENT * RECORD_BYTES;
+
+    private final Path logPath;
+    private final Path rotatedPath; // Previous journal, kept until a snapshot covering it is written
+    private final Path nextPath;    // Journal prepared for the next seal; active until finishSeal() renames it
+    private final FsyncPolicy policy;
+    private final long syncIntervalMillis;
+    private final Thread flusher; // Null under the NONE policy
+    private final Object durableMonitor = new Object(); // Transactions wait here; the flusher waits on 'this'
+    private final ArrayList<MappedByteBuffer> unforced = new ArrayList<>(); // The last entry is the current segment
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private int slot; // Next free record slot in the current segment
+    private long journalId;
+    private long recordsSinceRotate;
+    private long appendedLsn;
+    private long flushingLsn; // Highest LSN handed to the flusher
+    private volatile long durableLsn;
+    private volatile IOException failure;
+    private boolean closed;
+    private FileChannel nextChannel;         // Set by prepareNext() until seal() switches to it
+    private MappedByteBuffer nextSegment;
+    private FileChannel sealedChannel;       // Set by seal() until finishSeal()
+    private MappedByteBuffer[] sealedSegments;
+
+    /**
+     * Creates a new, empty journal. Any earlier journal at 'logPath' must already have been
+     * replayed; it is replaced.
+     */
+    BankJournal(Path logPath, long journalId, FsyncPolicy policy, long syncIntervalMillis) throws IOException {
+        this.logPath = logPath;
+        this.rotatedPath = rotatedPathFor(logPath);
+        this.nextPath = nextPathFor(logPath);
+        this.policy = policy;
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        open(journalId);
+        if (policy != FsyncPolicy.NONE) {
+            flusher = new Thread(this::flushLoop, "bank-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    static Path rotatedPathFor(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".1");
+    }
+
+    static Path nextPathFor(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".next");
+    }
+
+    /**
+     * Appends one record. Called while the caller holds the locks of the accounts it names,
+     * so each account's records are journaled in the order they were applied.
+     * @return The record's LSN, to pass to {@link #awaitDurable(long)}.
+     * @throws UncheckedIOException if the journal cannot be extended.
+     */
+    synchronized long append(int type, int account, int other, long cents) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (slot == RECORDS_PER_SEGMENT) {
+            try {
+                mapSegment(segmentIndex + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not extend journal", e);
+            }
+        }
+        int at = slot * RECORD_BYTES;
+        segment.putInt(at, type)
+                .putInt(at + 4, account)
+                .putInt(at + 8, other)
+                .putLong(at + 12, cents)
+                .putInt(at + 20, check(type, account, other, cents));
+        slot++;
+        recordsSinceRotate++;
+        if (policy == FsyncPolicy.GROUP && flushingLsn == appendedLsn) {
+            notify(); // Wake the idle flusher
+        }
+        return ++appendedLsn;
+    }
+
+    /**
+     * Under the GROUP policy, waits until the record with the given LSN is on stable storage.
+     * Returns at once under the other policies.
+     * @throws UncheckedIOException if the journal could not be forced.
+     */
+    void awaitDurable(long lsn) {
+        if (policy != FsyncPolicy.GROUP || durableLsn >= lsn) {
+            return;
+        }
+        synchronized (durableMonitor) {
+            while (durableLsn < lsn) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Journal sync failed", failure);
+                }
+                try {
+                    durableMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for journal sync"));
+                }
+            }
+        }
+    }
+
+    synchronized long recordsSinceRotate() {
+        return recordsSinceRotate;
+    }
+
+    /**
+     * Creates the journal file the next {@link #seal()} switches to and forces its header, so
+     * that I/O happens before the bank takes its locks. Does nothing if one is already prepared,
+     * or if an earlier sealed journal is still waiting for its snapshot.
+     */
+    void prepareNext() throws IOException {
+        long id;
+        synchronized (this) {
+            if (closed || nextChannel != null || sealedSegments != null || Files.exists(rotatedPath)) {
+                return;
+            }
+            id = journalId + 1;
+        }
+        FileChannel created = FileChannel.open(nextPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer first;
+        try {
+            first = created.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            writeHeader(first, id);
+            first.force(); // The header must be durable before any record that relies on it
+        } catch (IOException | RuntimeException e) {
+            created.close();
+            throw e;
+        }
+        synchronized (this) {
+            nextChannel = created;
+            nextSegment = first;
+        }
+    }
+
+    /**
+     * Seals the current journal and switches appends to the prepared one with the next id, so a
+     * snapshot can replace the sealed part. Called with every account locked, so the sealed
+     * journal holds exactly the transactions in the snapshot; it does no I/O.
+     * @return The id of the new journal, or -1 if none was prepared or an earlier seal has not
+     *         finished; appends then continue in the current journal.
+     */
+    synchronized long seal() {
+        if (nextChannel == null || sealedSegments != null) {
+            return -1;
+        }
+        sealedChannel = channel;
+        sealedSegments = unforced.toArray(new MappedByteBuffer[0]);
+        channel = nextChannel;
+        segment = nextSegment;
+        nextChannel = null;
+        nextSegment = null;
+        segmentIndex = 0;
+        slot = 1;
+        unforced.add(segment); // The sealed segments stay listed until the flusher forces them
+        journalId++;
+        recordsSinceRotate = 0;
+        return journalId;
+    }
+
+    /**
+     * Completes {@link #seal()} without the bank's locks: forces and closes the sealed journal,
+     * renames it to the rotated path, and moves the new journal to the journal path. Until it
+     * has run, startup replays the new journal from its prepared path.
+     */
+    void finishSeal() throws IOException {
+        FileChannel sealed;
+        MappedByteBuffer[] segments;
+        synchronized (this) {
+            if (sealedSegments == null) {
+                return;
+            }
+            sealed = sealedChannel;
+            segments = sealedSegments;
+        }
+        for (MappedByteBuffer buffer : segments) {
+            buffer.force();
+        }
+        sealed.close();
+        if (!Files.exists(rotatedPath)) {
+            Files.move(logPath, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (Files.exists(nextPath)) {
+            Files.move(nextPath, logPath, StandardCopyOption.ATOMIC_MOVE); // Appends go on through the open channel
+        }
+        forceDirectory(logPath);
+        synchronized (this) {
+            sealedChannel = null;
+            sealedSegments = null;
+        }
+    }
+
+    /**
+     * Drops the sealed journal once a snapshot that includes it has been written.
+     */
+    void deleteRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notify();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            forceAll();
+            channel.close();
+            if (sealedChannel != null) {
+                sealedChannel.close(); // Startup replays both files
+            }
+            if (nextChannel != null) {
+                nextChannel.close();
+                Files.deleteIfExists(nextPath);
+            }
+        }
+    }
+
+    /**
+     * Reads a journal's id from its header.
+     * @return The id, or -1 if the file is missing or has no valid header.
+     */
+    static long readId(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_BYTES);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return -1;
+            }
+            long id = header.getLong(8);
+            return header.getInt(20) == check(MAGIC, VERSION, 0, id) ? id : -1;
+        }
+    }
+
+    /**
+     * Replays every intact record of a journal, stopping at the first empty or torn slot.
+     * @return The number of records replayed.
+     */
+    static long replay(Path path, Replayer replayer) throws IOException {
+        long replayed = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = in.size();
+            int first = 1; // Slot 0 of the first segment is the header
+            for (long offset = 0; offset < size; offset += SEGMENT_BYTES, first = 0) {
+                MappedByteBuffer records = in.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_BYTES, size - offset));
+                int slots = records.capacity() / RECORD_BYTES;
+                for (int i = first; i < slots; i++) {
+                    int at = i * RECORD_BYTES;
+                    int type = records.getInt(at);
+                    int account = records.getInt(at + 4);
+                    int other = records.getInt(at + 8);
+                    long cents = records.getLong(at + 12);
+                    if (type == 0 || records.getInt(at + 20) != check(type, account, other, cents)) {
+                        return replayed;
+                    }
+                    replayer.apply(type, account, other, cents);
+                    replayed++;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    private void open(long id) throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        journalId = id;
+        unforced.clear();
+        mapSegment(0);
+        writeHeader(segment, id);
+        slot = 1;
+        forceAll(); // The header must be durable before any record that relies on it
+    }
+
+    private static void writeHeader(MappedByteBuffer first, long id) {
+        first.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, id).putInt(20, check(MAGIC, VERSION, 0, id));
+    }
+
+    // Makes renames in the journal's directory durable where the platform allows it.
+    private static void forceDirectory(Path path) {
+        Path directory = path.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory; the renames are still atomic
+        }
+    }
+
+    // Mapping past the end of the file extends it with zeros, which replay reads as the end.
+    private void mapSegment(long index) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, index * SEGMENT_BYTES, SEGMENT_BYTES);
+        segmentIndex = index;
+        slot = 0;
+        unforced.add(segment);
+    }
+
+    // Called with the journal lock held; everything appended so far becomes durable.
+    private void forceAll() {
+        for (MappedByteBuffer buffer : unforced) {
+            buffer.force();
+        }
+        unforced.subList(0, unforced.size() - 1).clear();
+        flushingLsn = appendedLsn;
+        markDurable(appendedLsn);
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            MappedByteBuffer[] segments;
+            synchronized (this) {
+                try {
+                    if (policy == FsyncPolicy.BATCH) {
+                        wait(syncIntervalMillis);
+                    } else {
+                        while (!closed && flushingLsn == appendedLsn) {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return; // close() forces whatever is left
+                }
+                if (flushingLsn == appendedLsn) {
+                    continue;
+                }
+                target = appendedLsn;
+                flushingLsn = target;
+                segments = unforced.toArray(new MappedByteBuffer[0]);
+            }
+            // Forcing outside the lock lets new appends queue up for the next group
+            try {
+                for (MappedByteBuffer buffer : segments) {
+                    buffer.force();
+                }
+                synchronized (this) {
+                    // Full segments stay listed until forced, so rotate() never marks them durable early
+                    for (int i = 0; i < segments.length - 1 && !unforced.isEmpty() && unforced.get(0) == segments[i]; i++) {
+                        unforced.remove(0);
+                    }
+                }
+                markDurable(target);
+            } catch (RuntimeException e) {
+                failure = new IOException("Could not sync journal", e);
+                synchronized (durableMonitor) {
+                    durableMonitor.notifyAll();
+                }
+                System.out.println("[Persistence Error] Could not sync journal: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void markDurable(long lsn) {
+        synchronized (durableMonitor) {
+            if (lsn > durableLsn) {
+                durableLsn = lsn;
+                durableMonitor.notifyAll();
+            }
+        }
+    }
+
+    // Detects torn or stale records; not a cryptographic checksum.
+    private static int check(int type, int account, int other, long cents) {
+        long h = (((long) type << 32) | (account & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (other & 0xFFFFFFFFL) ^ Long.rotateLeft(cents, 29)) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32)) | 1;
+    }
+}
+
+/**
+ * Bounded, time-windowed record of recent idempotency keys and the result of the request that
+ * first used each one, so a retried or double-submitted transaction is answered from the record
+ * instead of being applied again.
+ * <p>
+ * Keys are spread over lock stripes by hash, so requests with different keys rarely meet on the
+ * same monitor. Each stripe is a small open-addressed table held in parallel primitive arrays
+ * (key, fingerprint, time, state, result), and recording a request allocates nothing. The fingerprint
+ * identifies what the request does, so a key reused for a different request is refused as a
+ * conflict instead of being answered with another request's outcome. A key may live in any of
+ * {@value #MAX_PROBES} slots after its home slot. An entry older than the window counts as absent
+ * and its slot is reused. A key is never forgotten inside its window: when every candidate
+ * slot is still in use, the stripe doubles, up to {@value #MAX_GROWTH} times its starting size,
+ * and past that the request is refused with a {@link FullException} rather than risk applying
+ * a retry twice.
+ * <p>
+ * The record is kept in memory only, so it does not survive a restart: a retry that arrives
+ * after the bank is reopened is applied again, even inside the window.
+ */
+class IdempotencyCache {
+    private static final byte EMPTY = 0;
+    private static final byte PENDING = 1;  // The first request with this key is still running
+    private static final byte COMPLETED = 2;
+    private static final int MAX_PROBES = 16;
+    private static final int MAX_GROWTH = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long windowNanos;
+
+    /**
+     * @param capacity Total number of keys remembered; rounded up per stripe to a power of two.
+     * @param stripeCount Number of lock stripes; rounded up to a power of two.
+     * @param windowMillis How long a key is remembered after its first use.
+     */
+    IdempotencyCache(int capacity, int stripeCount, long windowMillis) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(stripeCount, 1 << 16)) * 2 - 1);
+        int perStripe = Math.max(MAX_PROBES, Integer.highestOneBit(Math.max(1, capacity / count) * 2 - 1));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        this.stripeMask = count - 1;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * Hashes a client-supplied key, such as a UUID, to the 64-bit form the cache stores.
+     * The result is never 0, which callers may use for "no key".
+     */
+    static long hashKey(CharSequence key) {
+        long h = 0xCBF29CE484222325L; // 64-bit FNV-1a
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h = mix(h);
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * Hashes what a request does (operation, accounts and amount), to pass to
+     * {@link #execute(long, long, LongSupplier)} with its key.
+     */
+    static long fingerprint(int operation, int account, int other, long cents) {
+        long h = mix(((long) operation << 32) | (account & 0xFFFFFFFFL));
+        return mix(h ^ mix(((long) other << 32) ^ cents));
+    }
+
+    /**
+     * Runs the request unless the key was seen within the window. A request with a key that is
+     * still running waits for it and returns its result. The result is recorded as soon as the
+     * request returns; a request that throws leaves no record, so its retry runs again.
+     * @param fingerprint What the request does, from {@link #fingerprint}; it must match the
+     *                    fingerprint recorded with the key.
+     * @return The result of the first request with this key.
+     * @throws ConflictException if the key was used within the window for a different request.
+     * @throws FullException if the key cannot be recorded without forgetting one inside its window.
+     * @throws UncheckedIOException if interrupted while waiting for a running duplicate.
+     */
+    long execute(long key, long fingerprint, LongSupplier request) {
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 32) & stripeMask];
+        int home = (int) hash;
+        int slot;
+        synchronized (stripe) {
+            while (true) {
+                long now = System.nanoTime();
+                int found = stripe.find(key, home, now, windowNanos);
+                if (found >= 0 && stripe.fingerprints[found] != fingerprint) {
+                    throw new ConflictException();
+                }
+                if (found >= 0 && stripe.states[found] != PENDING) {
+                    return stripe.results[found];
+                }
+                if (found < 0) {
+                    slot = stripe.claim(home, now, windowNanos);
+                    if (slot >= 0) {
+                        stripe.keys[slot] = key;
+                        stripe.fingerprints[slot] = fingerprint;
+                        stripe.times[slot] = now;
+                        stripe.states[slot] = PENDING;
+                        break;
+                    }
+                    if (!stripe.grow(now, windowNanos)) {
+                        throw new FullException();
+                    }
+                    continue;
+                }
+                // A duplicate is running: wait for it to finish
+                try {
+                    stripe.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a duplicate request"));
+                }
+            }
+        }
+        boolean completed = false;
+        long result = 0;
+        try {
+            result = request.getAsLong();
+            completed = true;
+            return result;
+        } finally {
+            synchronized (stripe) {
+                slot = stripe.findPending(key, home); // A growth may have moved the entry
+                stripe.states[slot] = completed ? COMPLETED : EMPTY;
+                stripe.results[slot] = result;
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Thrown when an idempotency key is reused for a request that does something else. */
+    static final class ConflictException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        ConflictException() {
+            super("Request key was already used for a different transaction");
+        }
+    }
+
+    /** Thrown when a stripe is full of keys still inside their window and cannot grow further. */
+    static final class FullException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        FullException() {
+            super("Too many recent requests to check this one for duplicates; try again shortly");
+        }
+    }
+
+    /** One lock stripe; every field is guarded by the stripe's monitor. */
+    private static final class Stripe {
+        long[] keys;
+        long[] fingerprints;
+        long[] times;
+        byte[] states;
+        long[] results;
+        int mask;
+        final int maxCapacity;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+            maxCapacity = capacity * MAX_GROWTH;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            fingerprints = new long[capacity];
+            times = new long[capacity];
+            states = new byte[capacity];
+            results = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        // Slot of the live entry for 'key', or -1. Running entries never expire.
+        int find(long key, int home, long now, long windowNanos) {
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = (home + i) & mask;
+                if (states[slot] != EMPTY && keys[slot] == key
+                        && (states[slot] == PENDING || now - times[slot] <= windowNanos)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        // Slot of the running entry for 'key'; the caller knows there is one.
+        int findPending(long key, int home) {
+            for (int i = 0; ; i++) {
+                int slot = (home + i) & mask;
+                if (states[slot] == PENDING && keys[slot] == key) {
+                    return slot;
+                }
+            }
+        }
+
+        // First empty or expired candidate slot, else -1.
+        int claim(int home, long now, long windowNanos) {
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = (home + i) & mask;
+                if (states[slot] == EMPTY || (states[slot] != PENDING && now - times[slot] > windowNanos)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Doubles the table, as often as needed to re-place every live entry within its probe
+         * range; expired entries are dropped on the way.
+         * @return false, leaving the table as it was, if that would pass the maximum capacity.
+         */
+        boolean grow(long now, long windowNanos) {
+            long[] oldKeys = keys;
+            long[] oldFingerprints = fingerprints;
+            long[] oldTimes = times;
+            byte[] oldStates = states;
+            long[] oldResults = results;
+            int oldMask = mask;
+            for (int capacity = oldKeys.length * 2; capacity <= maxCapacity; capacity *= 2) {
+                allocate(capacity);
+                boolean placed = true;
+                for (int from = 0; from < oldKeys.length; from++) {
+                    if (oldStates[from] == EMPTY || (oldStates[from] != PENDING && now - oldTimes[from] > windowNanos)) {
+                        continue;
+                    }
+                    int to = claim((int) mix(oldKeys[from]), now, windowNanos);
+                    if (to < 0) {
+                        placed = false;
+                        break;
+                    }
+                    keys[to] = oldKeys[from];
+                    fingerprints[to] = oldFingerprints[from];
+                    times[to] = oldTimes[from];
+                    states[to] = oldStates[from];
+                    results[to] = oldResults[from];
+                }
+                if (placed) {
+                    return true;
+                }
+            }
+            keys = oldKeys;
+            fingerprints = oldFingerprints;
+            times = oldTimes;
+            states = oldStates;
+            results = oldResults;
+            mask = oldMask;
+            return false;
+        }
+    }
+}
+
+/**
+ * Bank core holding many accounts keyed by a sequential int account number.
+ * <p>
+ * Balances are kept in cents in fixed-size {@code long[]} chunks, so millions of accounts
+ * cost eight bytes each with no per-account objects or boxed keys, and opening an account
+ * never copies existing balances. Every balance is guarded by one of a fixed set of lock
+ * stripes chosen from its account number: operations on unrelated accounts take different
+ * stripes and run in parallel, and a transfer takes its two stripes in ascending stripe
+ * order, so two transfers in opposite directions can never deadlock.
+ * <p>
+ * A bank opened with {@link #open(Path, Path)} is persistent: every successful transaction is
+ * appended to a {@link BankJournal} while its accounts are still locked, and a background
+ * checkpoint periodically writes a snapshot of all balances and starts a new journal. At
+ * startup the last snapshot is loaded and only the journals written after it are replayed.
+ * <p>
+ * Deposits, withdrawals and transfers can carry an idempotency key. Keyed requests are checked
+ * against an {@link IdempotencyCache}, so a retry within the window returns the first
+ * request's outcome and is not applied twice.
+ */
+class Bank {
+    static final int DEFAULT_STRIPES = Integer.getInteger("atm.bank.stripes", Runtime.getRuntime().availableProcessors() * 64);
+    static final BankJournal.FsyncPolicy FSYNC_POLICY =
+            BankJournal.FsyncPolicy.valueOf(System.getProperty("atm.journal.fsync", "group").toUpperCase());
+    static final long SYNC_INTERVAL_MILLIS = Long.getLong("atm.journal.syncMillis", 10);
+    static final long CHECKPOINT_AFTER_RECORDS = Long.getLong("atm.journal.checkpointAfter", 1_000_000);
+    static final long CHECKPOINT_INTERVAL_MILLIS = Long.getLong("atm.checkpoint.intervalMillis", 1000);
+    static final int DEDUP_CAPACITY = Integer.getInteger("atm.dedup.capacity", 1 << 18);
+    static final long DEDUP_WINDOW_MILLIS = Long.getLong("atm.dedup.windowMillis", 10 * 60 * 1000);
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_STRIPES = 1 << 10; // A checkpoint nests one monitor per stripe
+    private static final int SNAPSHOT_MAGIC = 0x42534E50; // "BSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 20;
+    private static final long NOT_APPLIED = -1; // Journal LSNs start at 1; an in-memory bank uses 0
+
+    private final Object[] stripes;
+    private final int stripeMask;
+    private final Object growLock = new Object();
+    private final Object checkpointLock = new Object();
+    private final Path snapshotPath;         // Null for an in-memory bank
+    private final BankJournal journal;       // Null for an in-memory bank
+    private final ScheduledExecutorService checkpointer;
+    private final IdempotencyCache recentRequests;
+    private volatile Image unwritten; // Sealed by a checkpoint that failed before its snapshot was written
+    private volatile long[][] chunks;
+    private volatile int accountCount; // Published after the new account's balance is written
+
+    public Bank() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates an empty, in-memory bank.
+     * @param stripeCount Number of lock stripes; rounded up to a power of two.
+     */
+    public Bank(int stripeCount) {
+        this(stripeCount, new Image(), null, null);
+    }
+
+    private Bank(int stripeCount, Image image, Path snapshotPath, BankJournal journal) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(stripeCount, MAX_STRIPES)) * 2 - 1);
+        this.stripes = new Object[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Object();
+        }
+        this.stripeMask = count - 1;
+        this.chunks = image.chunks;
+        this.accountCount = image.count;
+        this.snapshotPath = snapshotPath;
+        this.journal = journal;
+        this.recentRequests = new IdempotencyCache(DEDUP_CAPACITY, count, DEDUP_WINDOW_MILLIS);
+        if (journal != null) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "bank-checkpointer");
+                t.setDaemon(true);
+                return t;
+            });
+            checkpointer.scheduleWithFixedDelay(this::maybeCheckpoint,
+                    CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            checkpointer = null;
+        }
+    }
+
+    /**
+     * Opens a persistent bank: loads the snapshot, replays the journals written after it, and
+     * starts a fresh journal for new transactions.
+     * @param snapshotPath Snapshot file; missing means an empty bank.
+     * @param journalPath Journal file; its sealed predecessor lives next to it.
+     */
+    public static Bank open(Path snapshotPath, Path journalPath) throws IOException {
+        Image image = Image.load(snapshotPath);
+        long firstNeeded = image.nextJournalId;
+        long lastSeen = firstNeeded - 1;
+        long replayed = 0;
+        Path rotatedPath = BankJournal.rotatedPathFor(journalPath);
+        Path nextPath = BankJournal.nextPathFor(journalPath);
+        // Oldest first; a seal that had not finished leaves the newest journal at its prepared path
+        for (Path log : new Path[] {rotatedPath, journalPath, nextPath}) {
+            long id = BankJournal.readId(log);
+            if (id >= firstNeeded) {
+                replayed += BankJournal.replay(log, image::apply);
+                lastSeen = Math.max(lastSeen, id);
+            }
+        }
+        image.nextJournalId = lastSeen + 1;
+        if (replayed > 0) {
+            // Fold the replayed journals into the snapshot so both can be discarded
+            image.write(snapshotPath);
+        }
+        Files.deleteIfExists(rotatedPath);
+        Files.deleteIfExists(nextPath);
+        BankJournal journal = new BankJournal(journalPath, image.nextJournalId, FSYNC_POLICY, SYNC_INTERVAL_MILLIS);
+        return new Bank(DEFAULT_STRIPES, image, snapshotPath, journal);
+    }
+
+    /**
+     * Opens a new account.
+     * @param initialCents The starting balance in cents.
+     * @return The new account number.
+     * @throws IllegalArgumentException if the starting balance is negative.
+     */
+    public int openAccount(long initialCents) {
+        if (initialCents < 0) {
+            throw new IllegalArgumentException("Initial balance must be non-negative: " + initialCents);
+        }
+        synchronized (growLock) {
+            int id = accountCount;
+            if (id == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Account numbers exhausted");
+            }
+            long[][] current = chunks;
+            int chunk = id >>> CHUNK_BITS;
+            if (chunk == current.length) {
+                long[][] grown = Arrays.copyOf(current, chunk + 1);
+                grown[chunk] = new long[CHUNK_SIZE];
+                chunks = grown;
+                current = grown;
+            }
+            long lsn;
+            synchronized (stripeFor(id)) {
+                lsn = log(BankJournal.OPEN, id, -1, initialCents);
+                current[chunk][id & CHUNK_MASK] = initialCents;
+            }
+            accountCount = id + 1;
+            awaitDurable(lsn);
+            return id;
+        }
+    }
+
+    /**
+     * @return The number of accounts opened so far.
+     */
+    public int size() {
+        return accountCount;
+    }
+
+    /**
+     * @return true if the account number has been opened.
+     */
+    public boolean exists(int id) {
+        return id >= 0 && id < accountCount;
+    }
+
+    /**
+     * Returns an account's balance in cents.
+     * @throws IllegalArgumentException if the account does not exist.
+     */
+    public long balanceCents(int id) {
+        long[] chunk = chunkFor(id);
+        synchronized (stripeFor(id)) {
+            return chunk[id & CHUNK_MASK];
+        }
+    }
+
+    /**
+     * Deposits cents into an account.
+     * @return true if the deposit was applied, false if the amount is not positive or the
+     *         balance would overflow.
+     * @throws IllegalArgumentException if the account does not exist.
+     * @throws DurabilityException if the deposit was applied but could not be confirmed on disk.
+     */
+    public boolean deposit(int id, long cents) {
+        return confirm(applyDeposit(id, cents));
+    }
+
+    /**
+     * Withdraws cents from an account.
+     * @return true if the withdrawal was applied, false if the amount is not positive or
+     *         exceeds the balance.
+     * @throws IllegalArgumentException if the account does not exist.
+     * @throws DurabilityException if the withdrawal was applied but could not be confirmed on disk.
+     */
+    public boolean withdraw(int id, long cents) {
+        return confirm(applyWithdraw(id, cents));
+    }
+
+    /**
+     * Moves cents from one account to another as a single step: no reader ever sees the
+     * money in both accounts or in neither.
+     * @return true if the transfer was applied, false if the amount is not positive, the
+     *         accounts are the same, the source has insufficient funds, or the destination
+     *         balance would overflow.
+     * @throws IllegalArgumentException if either account does not exist.
+     * @throws DurabilityException if the transfer was applied but could not be confirmed on disk.
+     */
+    public boolean transfer(int fromId, int toId, long cents) {
+        return confirm(applyTransfer(fromId, toId, cents));
+    }
+
+    /**
+     * Deposits cents into an account at most once per idempotency key. The key is recorded as
+     * soon as the deposit is journaled, so a retry after a {@link DurabilityException} does not
+     * apply it again.
+     * @param requestKey Key the client sends again on retries, e.g. from {@link IdempotencyCache#hashKey}.
+     * @return The outcome of the first deposit with this key.
+     * @throws IdempotencyCache.ConflictException if the key was used for a different transaction.
+     * @throws IdempotencyCache.FullException if too many recent keys are held to record this one.
+     * @see #deposit(int, long)
+     */
+    public boolean deposit(int id, long cents, long requestKey) {
+        return confirm(recentRequests.execute(requestKey, IdempotencyCache.fingerprint(BankJournal.DEPOSIT, id, -1, cents),
+                () -> applyDeposit(id, cents)));
+    }
+
+    /**
+     * Withdraws cents from an account at most once per idempotency key.
+     * @return The outcome of the first withdrawal with this key.
+     * @throws IdempotencyCache.ConflictException if the key was used for a different transaction.
+     * @throws IdempotencyCache.FullException if too many recent keys are held to record this one.
+     * @see #withdraw(int, long)
+     * @see #deposit(int, long, long)
+     */
+    public boolean withdraw(int id, long cents, long requestKey) {
+        return confirm(recentRequests.execute(requestKey, IdempotencyCache.fingerprint(BankJournal.WITHDRAW, id, -1, cents),
+                () -> applyWithdraw(id, cents)));
+    }
+
+    /**
+     * Transfers cents between accounts at most once per idempotency key.
+     * @return The outcome of the first transfer with this key.
+     * @throws IdempotencyCache.ConflictException if the key was used for a different transaction.
+     * @throws IdempotencyCache.FullException if too many recent keys are held to record this one.
+     * @see #transfer(int, int, long)
+     * @see #deposit(int, long, long)
+     */
+    public boolean transfer(int fromId, int toId, long cents, long requestKey) {
+        return confirm(recentRequests.execute(requestKey, IdempotencyCache.fingerprint(BankJournal.TRANSFER, fromId, toId, cents),
+                () -> applyTransfer(fromId, toId, cents)));
+    }
+
+    // The apply methods return the journal LSN of the applied transaction, or NOT_APPLIED.
+
+    private long applyDeposit(int id, long cents) {
+        long[] chunk = chunkFor(id);
+        if (cents <= 0) {
+            return NOT_APPLIED;
+        }
+        int slot = id & CHUNK_MASK;
+        synchronized (stripeFor(id)) {
+            if (chunk[slot] > Long.MAX_VALUE - cents) {
+                return NOT_APPLIED;
+            }
+            long lsn = log(BankJournal.DEPOSIT, id, -1, cents);
+            chunk[slot] += cents;
+            return lsn;
+        }
+    }
+
+    private long applyWithdraw(int id, long cents) {
+        long[] chunk = chunkFor(id);
+        if (cents <= 0) {
+            return NOT_APPLIED;
+        }
+        int slot = id & CHUNK_MASK;
+        synchronized (stripeFor(id)) {
+            if (cents > chunk[slot]) {
+                return NOT_APPLIED;
+            }
+            long lsn = log(BankJournal.WITHDRAW, id, -1, cents);
+            chunk[slot] -= cents;
+            return lsn;
+        }
+    }
+
+    private long applyTransfer(int fromId, int toId, long cents) {
+        long[] from = chunkFor(fromId);
+        long[] to = chunkFor(toId);
+        if (cents <= 0 || fromId == toId) {
+            return NOT_APPLIED;
+        }
+        int fromStripe = fromId & stripeMask;
+        int toStripe = toId & stripeMask;
+        // Lock in ascending stripe order so opposing transfers cannot deadlock
+        Object first = stripes[Math.min(fromStripe, toStripe)];
+        Object second = stripes[Math.max(fromStripe, toStripe)];
+        synchronized (first) {
+            synchronized (second) {
+                int fromSlot = fromId & CHUNK_MASK;
+                int toSlot = toId & CHUNK_MASK;
+                if (cents > from[fromSlot] || to[toSlot] > Long.MAX_VALUE - cents) {
+                    return NOT_APPLIED;
+                }
+                long lsn = log(BankJournal.TRANSFER, fromId, toId, cents);
+                from[fromSlot] -= cents;
+                to[toSlot] += cents;
+                return lsn;
+            }
+        }
+    }
+
+    // Waits until an applied transaction is durable; also for a retry answered from the record.
+    private boolean confirm(long lsn) {
+        if (lsn == NOT_APPLIED) {
+            return false;
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    /**
+     * Returns an {@link Account} view of one account, for code written against a single
+     * account such as an {@link ATMSystem} session.
+     * @throws IllegalArgumentException if the account does not exist.
+     */
+    public Account account(int id) {
+        chunkFor(id);
+        return new AccountRef(this, id);
+    }
+
+    /**
+     * Writes a snapshot of every balance and starts a new journal, so the next startup replays
+     * only what happened after this point. Does nothing for an in-memory bank.
+     * <p>
+     * If an earlier checkpoint sealed its journal but failed to write its snapshot, that snapshot
+     * is written first; no new journal is sealed until it has been.
+     */
+    public void checkpoint() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            if (unwritten != null) {
+                finishCheckpoint(unwritten);
+                System.out.println("[Info] Wrote the bank snapshot of an earlier checkpoint that had failed.");
+            }
+            journal.prepareNext(); // File creation and its sync stay outside the stripe locks
+            Image image;
+            synchronized (growLock) {
+                image = cut(0);
+            }
+            if (image == null) {
+                throw new IOException("Could not seal the bank journal");
+            }
+            unwritten = image;
+            finishCheckpoint(image);
+        }
+    }
+
+    // Every step can be repeated, so a failed checkpoint is retried from the same image.
+    private void finishCheckpoint(Image image) throws IOException {
+        journal.finishSeal();
+        image.write(snapshotPath);
+        journal.deleteRotated();
+        unwritten = null;
+    }
+
+    /**
+     * Checkpoints a persistent bank and closes its journal. Transactions must not be running.
+     */
+    public void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        checkpointer.shutdown();
+        if (journal.recordsSinceRotate() > 0 || unwritten != null) {
+            checkpoint();
+        }
+        journal.close();
+    }
+
+    private void maybeCheckpoint() {
+        if (unwritten == null && journal.recordsSinceRotate() < CHECKPOINT_AFTER_RECORDS) {
+            return;
+        }
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[Persistence Error] Could not checkpoint bank: " + e.getMessage());
+        }
+    }
+
+    // Takes every stripe in ascending order, the same order transfers use, then copies the
+    // balances and seals the journal while no transaction can run. Neither step does I/O.
+    private Image cut(int stripe) {
+        if (stripe < stripes.length) {
+            synchronized (stripes[stripe]) {
+                return cut(stripe + 1);
+            }
+        }
+        long nextJournalId = journal.seal();
+        if (nextJournalId < 0) {
+            return null;
+        }
+        Image image = new Image();
+        image.count = accountCount;
+        image.chunks = new long[chunks.length][];
+        for (int i = 0; i < image.chunks.length; i++) {
+            image.chunks[i] = chunks[i].clone();
+        }
+        image.nextJournalId = nextJournalId;
+        return image;
+    }
+
+    private long log(int type, int account, int other, long cents) {
+        return journal != null ? journal.append(type, account, other, cents) : 0;
+    }
+
+    private void awaitDurable(long lsn) {
+        if (journal != null) {
+            try {
+                journal.awaitDurable(lsn);
+            } catch (UncheckedIOException e) {
+                throw new DurabilityException(e.getCause());
+            }
+        }
+    }
+
+    private Object stripeFor(int id) {
+        return stripes[id & stripeMask];
+    }
+
+    private long[] chunkFor(int id) {
+        if (!exists(id)) {
+            throw new IllegalArgumentException("No such account: " + id);
+        }
+        return chunks[id >>> CHUNK_BITS];
+    }
+
+    /**
+     * Balances of every account at one point in time, as stored in the snapshot file:
+     * [magic:4][version:4][nextJournalId:8][count:4] followed by 'count' balances of 8 bytes.
+     */
+    static final class Image {
+        long[][] chunks = new long[0][];
+        int count;
+        long nextJournalId = 1; // First journal whose transactions are not in this image
+
+        static Image load(Path path) throws IOException {
+            Image image = new Image();
+            if (!Files.exists(path)) {
+                return image;
+            }
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (data.capacity() < SNAPSHOT_HEADER_BYTES || data.getInt(0) != SNAPSHOT_MAGIC
+                        || data.getInt(4) != SNAPSHOT_VERSION) {
+                    throw new IOException("Not a bank snapshot: " + path);
+                }
+                image.nextJournalId = data.getLong(8);
+                int count = data.getInt(16);
+                if (count < 0 || data.capacity() != SNAPSHOT_HEADER_BYTES + (long) count * Long.BYTES) {
+                    throw new IOException("Truncated bank snapshot: " + path);
+                }
+                LongBuffer balances = data.position(SNAPSHOT_HEADER_BYTES).slice().asLongBuffer();
+                image.chunks = new long[(count + CHUNK_MASK) >>> CHUNK_BITS][];
+                for (int i = 0; i < image.chunks.length; i++) {
+                    image.chunks[i] = new long[CHUNK_SIZE];
+                    balances.get(image.chunks[i], 0, Math.min(CHUNK_SIZE, count - (i << CHUNK_BITS)));
+                }
+                image.count = count;
+            }
+            return image;
+        }
+
+        // Replays one journal record; amounts were validated when the record was written.
+        void apply(int type, int account, int other, long cents) throws IOException {
+            switch (type) {
+                case BankJournal.OPEN:
+                    if (account != count) {
+                        throw new IOException("Journal opens account " + account + " but " + count + " exist");
+                    }
+                    if ((count & CHUNK_MASK) == 0) {
+                        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                        chunks[chunks.length - 1] = new long[CHUNK_SIZE];
+                    }
+                    count++;
+                    add(account, cents);
+                    break;
+                case BankJournal.DEPOSIT:
+                    add(account, cents);
+                    break;
+                case BankJournal.WITHDRAW:
+                    add(account, -cents);
+                    break;
+                case BankJournal.TRANSFER:
+                    add(account, -cents);
+                    add(other, cents);
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type " + type);
+            }
+        }
+
+        private void add(int account, long cents) throws IOException {
+            if (account < 0 || account >= count) {
+                throw new IOException("Journal names unknown account " + account);
+            }
+            chunks[account >>> CHUNK_BITS][account & CHUNK_MASK] += cents;
+        }
+
+        /**
+         * Writes the image to a temp file, forces it, and atomically replaces the snapshot.
+         */
+        void write(Path path) throws IOException {
+            Path target = path.toAbsolutePath();
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextJournalId).putInt(count);
+                for (int i = 0; i < chunks.length; i++) {
+                    int length = Math.min(CHUNK_SIZE, count - (i << CHUNK_BITS));
+                    for (int offset = 0; offset < length; ) {
+                        if (buffer.remaining() < Long.BYTES) {
+                            drain(out, buffer);
+                        }
+                        int n = Math.min(length - offset, buffer.remaining() / Long.BYTES);
+                        buffer.asLongBuffer().put(chunks[i], offset, n);
+                        buffer.position(buffer.position() + n * Long.BYTES);
+                        offset += n;
+                    }
+                }
+                drain(out, buffer);
+                out.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                directory.force(true); // Make the rename itself durable
+            } catch (IOException e) {
+                // Not every platform can open a directory; the rename is still atomic
+            }
+        }
+
+        private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Thrown when a transaction was applied and journaled but could not be confirmed on stable
+     * storage. The money has moved: the transaction must not be reported as failed, and a retry
+     * with the same idempotency key does not apply it again.
+     */
+    static final class DurabilityException extends UncheckedIOException {
+        private static final long serialVersionUID = 1L;
+
+        DurabilityException(IOException cause) {
+            super("Transaction applied, but not confirmed on disk: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Account view that delegates every operation to one account in a {@link Bank}; it holds
+     * no balance of its own.
+     */
+    static final class AccountRef implements Account {
+        private final Bank bank;
+        private final int id;
+
+        AccountRef(Bank bank, int id) {
+            this.bank = bank;
+            this.id = id;
+        }
+
+        Bank getBank() {
+            return bank;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        @Override
+        public long getBalanceCents() {
+            return bank.balanceCents(id);
+        }
+
+        @Override
+        public boolean depositCents(long cents) {
+            return bank.deposit(id, cents);
+        }
+
+        @Override
+        public boolean withdrawCents(long cents) {
+            return bank.withdraw(id, cents);
+        }
+    }
+}
+
+/**
+ * Serves ATM sessions to many terminals over a local TCP socket, all against one shared {@link Bank}.
+ * <p>
+ * Each connection runs an ordinary {@link ATMSystem} session, with the same menus, on its own
+ * thread. Where the runtime has virtual threads (Java 21+) every session gets one, so an idle
+ * terminal costs only its stream buffers and a parked stack on the heap. Older runtimes fall
+ * back to one daemon platform thread per session with a small stack, which makes every session
+ * an operating-system thread.
+ * <p>
+ * Sessions are capped by atm.server.maxSessions: 100,000 by default on virtual threads, and
+ * 1,000 on platform threads, about 256 MiB of reserved stack. A terminal that connects while
+ * the server is full is told the ATM is busy and disconnected.
  */
-class BankAccount {
-    private double balance;
+class ATMSessionServer implements AutoCloseable {
+    private static final int SESSION_STACK_BYTES = 256 * 1024; // Platform-thread fallback only
+    private static final int OUTPUT_BUFFER_BYTES = 1024;       // Enough for the menu; prompts flush it
+    private static final int MAX_VIRTUAL_SESSIONS = 100_000;
+    private static final int MAX_PLATFORM_SESSIONS = 1_000;
+    private static final byte[] BUSY = "The ATM is busy. Please try again later.\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Bank bank;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final int maxSessions;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Set<Socket> terminals = ConcurrentHashMap.newKeySet(); // Closed by close() to end blocked reads
 
     /**
-     * Initializes the account with a starting balance.
-     * @param initialBalance The starting amount in the account.
+     * Binds the server to the loopback address.
+     * @param port The port to listen on, or 0 for any free port.
      */
-    public BankAccount(double initialBalance) {
-        if (initialBalance >= 0) {
-            this.balance = initialBalance;
-        } else {
-            // Start with 0 if an invalid initial balance is provided
-            this.balance = 0;
-            System.out.println("Warning: Initial balance must be non-negative. Set to 0.00.");
+    ATMSessionServer(Bank bank, int port) throws IOException {
+        this.bank = bank;
+        this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        this.sessions = virtualThreads != null ? virtualThreads : newPlatformThreadExecutor();
+        this.maxSessions = Integer.getInteger("atm.server.maxSessions",
+                virtualThreads != null ? MAX_VIRTUAL_SESSIONS : MAX_PLATFORM_SESSIONS);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int activeSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Accepts terminals until the server is closed, starting a session for each.
+     */
+    void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return; // close() was called
+                }
+                throw e;
+            }
+            if (activeSessions.incrementAndGet() > maxSessions) {
+                activeSessions.decrementAndGet();
+                turnAway(socket);
+                continue;
+            }
+            terminals.add(socket); // Before execute(), so close() sees every session it lets start
+            try {
+                sessions.execute(() -> runSession(socket));
+            } catch (RejectedExecutionException e) {
+                terminals.remove(socket);
+                activeSessions.decrementAndGet();
+                socket.close();
+            }
+        }
+    }
+
+    // The message fits in the new socket's send buffer, so this never blocks the accept loop.
+    private static void turnAway(Socket socket) {
+        try (Socket terminal = socket) {
+            terminal.getOutputStream().write(BUSY);
+        } catch (IOException e) {
+            // The terminal is gone already
+        }
+    }
+
+    private void runSession(Socket socket) {
+        try (Socket terminal = socket) {
+            terminal.setTcpNoDelay(true);
+            PrintStream out = new PrintStream(
+                    new BufferedOutputStream(terminal.getOutputStream(), OUTPUT_BUFFER_BYTES), false, StandardCharsets.UTF_8);
+            new ATMSystem(bank, terminal.getInputStream(), out).start();
+        } catch (IOException | NoSuchElementException e) {
+            // The terminal disconnected mid-session; nothing to clean up beyond the socket
+        } catch (RuntimeException e) {
+            System.out.println("[Error] ATM session ended: " + e);
+        } finally {
+            terminals.remove(socket);
+            activeSessions.decrementAndGet();
         }
     }
 
     /**
-     * Returns the current account balance.
-     * @return The current balance.
+     * Stops accepting terminals and ends the running sessions by closing their sockets, which
+     * wakes any session blocked reading from its terminal. A transaction already running still
+     * completes; use {@link #awaitTermination(long, TimeUnit)} before closing the bank.
      */
-    public double getBalance() {
-        return balance;
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        sessions.shutdown();
+        for (Socket terminal : terminals) {
+            try {
+                terminal.close();
+            } catch (IOException e) {
+                // The session ends either way once its thread sees the closed socket
+            }
+        }
     }
 
     /**
-     * Deposits a specified amount into the account.
-     * @param amount The amount to deposit.
-     * @return true if deposit was successful, false otherwise.
+     * Waits for the sessions ended by {@link #close()} to finish.
+     * @return true if every session finished within the timeout.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return sessions.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Virtual-thread-per-task executor where the runtime has one (Java 21+).
+     * @return The executor, or null on older runtimes.
      */
-    public boolean deposit(double amount) {
-        if (amount > 0) {
-            this.balance += amount;
-            return true;
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
         }
-        return false;
     }
 
     /**
-     * Withdraws a specified amount from the account.
-     * Includes validation to ensure sufficient funds.
-     * @param amount The amount to withdraw.
-     * @return true if withdrawal was successful, false otherwise.
+     * One daemon platform thread per session, with a small stack.
      */
-    public boolean withdraw(double amount) {
-        if (amount > 0 && amount <= balance) {
-            this.balance -= amount;
-            return true;
+    private static ExecutorService newPlatformThreadExecutor() {
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(null, task, "atm-session", SESSION_STACK_BYTES);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
+
+/**
+ * Multi-threaded stress check for BankAccount (ATMSystem --stress [seconds]).
+ * <p>
+ * Threads deposit and withdraw random amounts on one shared account, each adding up the cents its
+ * successful operations moved. The final balance must equal the starting balance plus every
+ * deposit minus every withdrawal, and the balance must never be seen below zero. The same loop
+ * with one account per thread gives the uncontended rate to compare with.
+ * <p>
+ * It then measures random transfers per second on an in-memory {@link Bank} as the thread count
+ * doubles, and runs transfers on a journaled bank in a temporary directory while checkpoints
+ * run back to back, reporting the slowest transfer. The total of all balances must not change,
+ * and the journaled balances must come back unchanged after reopening.
+ */
+class BankStress {
+    private static final long START_CENTS = 1_000_000;
+    private static final int MAX_AMOUNT_CENTS = 500;
+    private static final int TRANSFER_ACCOUNTS = 1 << 20;
+    private static final int JOURNALED_ACCOUNTS = 1 << 10;   // Each opening waits for a journal sync
+    private static final long CHECKPOINT_PAUSE_MILLIS = 50;
+
+    static boolean run(int seconds) throws IOException, InterruptedException {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        boolean passed = accounts(threads, seconds, true);
+        passed &= accounts(threads, seconds, false);
+        passed &= transfers(seconds);
+        passed &= checkpointedTransfers(threads, seconds);
+        System.out.println(passed ? "[Stress] Passed: every balance was conserved." : "[Stress] FAILED");
+        return passed;
+    }
+
+    // Shared: every thread works on one account. Otherwise each thread has its own.
+    private static boolean accounts(int threadCount, int seconds, boolean shared) throws InterruptedException {
+        BankAccount[] accounts = new BankAccount[shared ? 1 : threadCount];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new BankAccount(START_CENTS / 100.0);
+        }
+        long[] deposited = new long[threadCount];
+        long[] withdrawn = new long[threadCount];
+        long[] operations = new long[threadCount];
+        AtomicInteger overdrawn = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int index = t;
+            BankAccount account = accounts[shared ? 0 : t];
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long in = 0;
+                long out = 0;
+                long count = 0;
+                for (; (count & 1023) != 0 || System.nanoTime() < deadline; count++) {
+                    long cents = 1 + random.nextInt(MAX_AMOUNT_CENTS);
+                    if (random.nextBoolean()) {
+                        if (account.depositCents(cents)) {
+                            in += cents;
+                        }
+                    } else if (account.withdrawCents(cents)) {
+                        out += cents;
+                    }
+                    if ((count & 1023) == 0 && account.getBalanceCents() < 0) {
+                        overdrawn.incrementAndGet();
+                    }
+                }
+                // Published to the main thread by join()
+                deposited[index] = in;
+                withdrawn[index] = out;
+                operations[index] = count;
+            }, "stress-account-" + t);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean conserved = overdrawn.get() == 0;
+        long[] expected = new long[accounts.length];
+        Arrays.fill(expected, START_CENTS);
+        long total = 0;
+        for (int t = 0; t < threadCount; t++) {
+            expected[shared ? 0 : t] += deposited[t] - withdrawn[t];
+            total += operations[t];
+        }
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i].getBalanceCents() != expected[i]) {
+                System.out.println("[Stress] Account " + i + " holds " + accounts[i].getBalanceCents()
+                        + " cents but its deposits and withdrawals add up to " + expected[i] + ".");
+                conserved = false;
+            }
+        }
+        if (overdrawn.get() > 0) {
+            System.out.println("[Stress] A balance was seen below zero " + overdrawn.get() + " time(s).");
+        }
+        System.out.printf("[Stress] %s, %d threads, %d s: %,d operations/s%n",
+                shared ? "one shared account" : "one account per thread", threadCount, seconds, total / seconds);
+        return conserved;
+    }
+
+    // Transfers per second between random accounts as threads double, up to twice the core count.
+    private static boolean transfers(int seconds) throws InterruptedException {
+        Bank bank = new Bank();
+        for (int i = 0; i < TRANSFER_ACCOUNTS; i++) {
+            bank.openAccount(START_CENTS);
+        }
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long[] slowest = new long[1];
+            long count = runTransfers(bank, threads, seconds, slowest);
+            System.out.printf("[Stress] transfers between %,d accounts, %d threads: %,d transfers/s%n",
+                    TRANSFER_ACCOUNTS, threads, count / seconds);
+        }
+        return checkTotal(bank, (long) TRANSFER_ACCOUNTS * START_CENTS);
+    }
+
+    // Transfers on a journaled bank while checkpoints run back to back, then reopens it.
+    private static boolean checkpointedTransfers(int threads, int seconds) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("atm-stress");
+        Path snapshotPath = directory.resolve("bank.snapshot");
+        Path journalPath = directory.resolve("bank.journal");
+        boolean passed;
+        try {
+            Bank bank = Bank.open(snapshotPath, journalPath);
+            long[] balances;
+            try {
+                for (int i = 0; i < JOURNALED_ACCOUNTS; i++) {
+                    bank.openAccount(START_CENTS);
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                AtomicInteger checkpoints = new AtomicInteger();
+                Thread checkpointer = new Thread(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            bank.checkpoint();
+                            checkpoints.incrementAndGet();
+                            Thread.sleep(CHECKPOINT_PAUSE_MILLIS);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("[Stress] Checkpoint failed: " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "stress-checkpointer");
+                checkpointer.start();
+                long[] slowest = new long[1];
+                long count = runTransfers(bank, threads, seconds, slowest);
+                checkpointer.join();
+                System.out.printf("[Stress] journaled transfers, %d threads, %d checkpoints: %,d transfers/s, slowest %.1f ms%n",
+                        threads, checkpoints.get(), count / seconds, slowest[0] / 1e6);
+                passed = checkTotal(bank, (long) JOURNALED_ACCOUNTS * START_CENTS);
+                balances = new long[bank.size()];
+                for (int i = 0; i < balances.length; i++) {
+                    balances[i] = bank.balanceCents(i);
+                }
+            } finally {
+                bank.close();
+            }
+            Bank reopened = Bank.open(snapshotPath, journalPath);
+            try {
+                for (int i = 0; i < balances.length && passed; i++) {
+                    if (reopened.balanceCents(i) != balances[i]) {
+                        System.out.println("[Stress] Account " + i + " changed from " + balances[i] + " to "
+                                + reopened.balanceCents(i) + " cents after reopening.");
+                        passed = false;
+                    }
+                }
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            for (Path file : new Path[] {snapshotPath, snapshotPath.resolveSibling("bank.snapshot.tmp"), journalPath,
+                    BankJournal.rotatedPathFor(journalPath), BankJournal.nextPathFor(journalPath)}) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        }
+        return passed;
+    }
+
+    // Runs random transfers on every thread for the given time; returns how many were applied.
+    private static long runTransfers(Bank bank, int threadCount, int seconds, long[] slowestNanos) throws InterruptedException {
+        int accounts = bank.size();
+        long[] applied = new long[threadCount];
+        long[] slowest = new long[threadCount];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long longest = 0;
+                long now = System.nanoTime();
+                while (now < deadline) {
+                    if (bank.transfer(random.nextInt(accounts), random.nextInt(accounts), 1 + random.nextInt(MAX_AMOUNT_CENTS))) {
+                        count++;
+                    }
+                    long finished = System.nanoTime();
+                    longest = Math.max(longest, finished - now);
+                    now = finished;
+                }
+                applied[index] = count;
+                slowest[index] = longest;
+            }, "stress-transfer-" + t);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long total = 0;
+        for (int t = 0; t < threadCount; t++) {
+            threads[t].join();
+            total += applied[t];
+            slowestNanos[0] = Math.max(slowestNanos[0], slowest[t]);
+        }
+        return total;
+    }
+
+    private static boolean checkTotal(Bank bank, long expected) {
+        long total = 0;
+        for (int i = 0; i < bank.size(); i++) {
+            total += bank.balanceCents(i);
         }
-        return false;
+        if (total != expected) {
+            System.out.println("[Stress] The bank holds " + total + " cents in total but started with " + expected + ".");
+            return false;
+        }
+        return true;
     }
 }
 
 /**
  * Main class representing the ATM machine and its user interface.
- * It interacts with the BankAccount class to perform transactions.
+ * It interacts with an {@link Account} to perform transactions.
  */
 public class ATMSystem {
-    private BankAccount account;
-    private Scanner scanner;
+    private static final Pattern REQUEST_KEY = Pattern.compile("#\\S+");
+    private static final long SHUTDOWN_WAIT_SECONDS = Long.getLong("atm.server.shutdownSeconds", 10);
+
+    private Account account;
+    private final Bank bank; // Set when the session picks its account at the start
+    private final Scanner scanner;
+    private final PrintStream out;
 
     /**
      * Constructor to initialize the ATM with a linked BankAccount and a Scanner for input.
      * @param account The bank account associated with this ATM session.
      */
-    public ATMSystem(BankAccount account) {
+    public ATMSystem(Account account) {
+        this(account, System.in, System.out);
+    }
+
+    /**
+     * Creates an ATM session on its own input and output streams, such as a network terminal.
+     * @param account The bank account associated with this ATM session.
+     * @param in The stream the user's choices are read from.
+     * @param out The stream menus and results are written to.
+     */
+    public ATMSystem(Account account, InputStream in, PrintStream out) {
         this.account = account;
-        this.scanner = new Scanner(System.in);
+        this.bank = null;
+        this.scanner = new Scanner(in);
+        this.out = out;
+    }
+
+    /**
+     * Creates an ATM session that first asks which account of the bank to use.
+     * @param bank The bank holding the accounts.
+     * @param in The stream the user's choices are read from.
+     * @param out The stream menus and results are written to.
+     */
+    public ATMSystem(Bank bank, InputStream in, PrintStream out) {
+        this.account = null;
+        this.bank = bank;
+        this.scanner = new Scanner(in);
+        this.out = out;
+    }
+
+    /**
+     * Prints a prompt and flushes it, so a remote terminal sees it before the session waits for input.
+     */
+    private void prompt(String text) {
+        out.print(text);
+        out.flush();
+    }
+
+    /**
+     * Asks for an account number until an existing one is entered.
+     * @return false if the input ended first.
+     */
+    private boolean selectAccount() {
+        while (true) {
+            prompt("Please enter your account number: ");
+            if (!scanner.hasNext()) {
+                return false;
+            }
+            if (scanner.hasNextInt()) {
+                int id = scanner.nextInt();
+                if (bank.exists(id)) {
+                    account = bank.account(id);
+                    return true;
+                }
+                out.println("Unknown account number.");
+            } else {
+                out.println("Invalid input. Please enter a number for your account.");
+                scanner.next(); // Clear the invalid input
+            }
+        }
     }
 
     /**
      * Displays the main menu options to the user.
      */
     private void displayMenu() {
-        System.out.println("\n--- ATM Services Menu ---");
-        System.out.println("1. Check Balance");
-        System.out.println("2. Deposit");
-        System.out.println("3. Withdraw");
-        System.out.println("4. Exit");
-        System.out.print("Please enter your choice (1-4): ");
+        out.println("\n--- ATM Services Menu ---");
+        out.println("1. Check Balance");
+        out.println("2. Deposit");
+        out.println("3. Withdraw");
+        if (canTransfer()) {
+            out.println("4. Transfer");
+        }
+        out.println(maxChoice() + ". Exit");
+        prompt(String.format("Please enter your choice (1-%d): ", maxChoice()));
+    }
+
+    /**
+     * Transfers are offered only when the session's account belongs to a {@link Bank}.
+     */
+    private boolean canTransfer() {
+        return account instanceof Bank.AccountRef;
+    }
+
+    private int maxChoice() {
+        return canTransfer() ? 5 : 4;
     }
 
     /**
      * Handles the user's balance inquiry.
      */
     private void checkBalance() {
-        System.out.printf("\nYour current balance is: $%.2f%n", account.getBalance());
+        out.printf("\nYour current balance is: $%.2f%n", account.getBalance());
     }
 
     /**
@@ -98,23 +1978,31 @@ public class ATMSystem {
      */
     private void handleDeposit() {
         try {
-            System.out.print("Enter amount to deposit: $");
+            prompt("Enter amount to deposit: $");
+            long requestKey = readRequestKey();
             double amount = scanner.nextDouble();
 
             if (amount <= 0) {
-                System.out.println("Transaction Failed: Deposit amount must be positive.");
+                out.println("Transaction Failed: Deposit amount must be positive.");
                 return;
             }
 
-            if (account.deposit(amount)) {
-                System.out.printf("Success! $%.2f deposited. New balance: $%.2f%n", amount, account.getBalance());
+            if (deposit(amount, requestKey)) {
+                out.printf("Success! $%.2f deposited. New balance: $%.2f%n", amount, account.getBalance());
             } else {
                 // Should not happen if amount > 0 check is above, but serves as a fail-safe
-                System.out.println("Transaction Failed: Could not process deposit.");
+                out.println("Transaction Failed: Could not process deposit.");
             }
-        } catch (java.util.InputMismatchException e) {
-            System.out.println("Invalid Input: Please enter a valid number.");
+        } catch (InputMismatchException e) {
+            out.println("Invalid Input: Please enter a valid number.");
             scanner.next(); // Clear the invalid input
+        } catch (IdempotencyCache.ConflictException | IdempotencyCache.FullException e) {
+            out.println("Transaction Failed: " + e.getMessage() + ".");
+        } catch (Bank.DurabilityException e) {
+            out.println("Transaction Completed, but the bank could not confirm it was saved (" + e.getCause().getMessage()
+                    + "). Do not repeat it; check your balance.");
+        } catch (UncheckedIOException e) {
+            out.println("Transaction Failed: Could not record transaction (" + e.getMessage() + ").");
         }
     }
 
@@ -123,24 +2011,115 @@ public class ATMSystem {
      */
     private void handleWithdrawal() {
         try {
-            System.out.print("Enter amount to withdraw: $");
+            prompt("Enter amount to withdraw: $");
+            long requestKey = readRequestKey();
             double amount = scanner.nextDouble();
 
             if (amount <= 0) {
-                System.out.println("Transaction Failed: Withdrawal amount must be positive.");
+                out.println("Transaction Failed: Withdrawal amount must be positive.");
                 return;
             }
 
-            if (account.withdraw(amount)) {
-                System.out.printf("Success! $%.2f withdrawn. New balance: $%.2f%n", amount, account.getBalance());
+            if (withdraw(amount, requestKey)) {
+                out.printf("Success! $%.2f withdrawn. New balance: $%.2f%n", amount, account.getBalance());
             } else if (amount > account.getBalance()) {
-                System.out.println("Transaction Failed: Insufficient funds.");
+                out.println("Transaction Failed: Insufficient funds.");
+            } else {
+                out.println("Transaction Failed: Could not process withdrawal.");
+            }
+        } catch (InputMismatchException e) {
+            out.println("Invalid Input: Please enter a valid number.");
+            scanner.next(); // Clear the invalid input
+        } catch (IdempotencyCache.ConflictException | IdempotencyCache.FullException e) {
+            out.println("Transaction Failed: " + e.getMessage() + ".");
+        } catch (Bank.DurabilityException e) {
+            out.println("Transaction Completed, but the bank could not confirm it was saved (" + e.getCause().getMessage()
+                    + "). Do not repeat it; check your balance.");
+        } catch (UncheckedIOException e) {
+            out.println("Transaction Failed: Could not record transaction (" + e.getMessage() + ").");
+        }
+    }
+
+    /**
+     * Reads the optional idempotency key a terminal may send as a "#key" token before a
+     * transaction's first value. A terminal that resends a request after a timeout reuses the
+     * key, and the bank answers with the first outcome instead of applying it again.
+     * @return The hashed key, or 0 if none was sent.
+     */
+    private long readRequestKey() {
+        if (scanner.hasNext(REQUEST_KEY)) {
+            return IdempotencyCache.hashKey(scanner.next().substring(1));
+        }
+        return 0;
+    }
+
+    // Keys only take effect for accounts held by a Bank, which owns the dedup cache.
+    private boolean deposit(double amount, long requestKey) {
+        if (requestKey != 0 && account instanceof Bank.AccountRef) {
+            Bank.AccountRef held = (Bank.AccountRef) account;
+            return held.getBank().deposit(held.getId(), BankAccount.toCents(amount), requestKey);
+        }
+        return account.deposit(amount);
+    }
+
+    private boolean withdraw(double amount, long requestKey) {
+        if (requestKey != 0 && account instanceof Bank.AccountRef) {
+            Bank.AccountRef held = (Bank.AccountRef) account;
+            return held.getBank().withdraw(held.getId(), BankAccount.toCents(amount), requestKey);
+        }
+        return account.withdraw(amount);
+    }
+
+    private void invalidChoice() {
+        out.printf("Invalid choice. Please select an option between 1 and %d.%n", maxChoice());
+    }
+
+    /**
+     * Handles a transfer from this session's account to another account in the same bank.
+     */
+    private void handleTransfer() {
+        Bank.AccountRef source = (Bank.AccountRef) account;
+        Bank bank = source.getBank();
+        try {
+            prompt("Enter destination account number: ");
+            long requestKey = readRequestKey();
+            int targetId = scanner.nextInt();
+
+            if (!bank.exists(targetId) || targetId == source.getId()) {
+                out.println("Transaction Failed: Invalid destination account.");
+                return;
+            }
+
+            prompt("Enter amount to transfer: $");
+            double amount = scanner.nextDouble();
+            long cents = BankAccount.toCents(amount);
+
+            if (cents <= 0) {
+                out.println("Transaction Failed: Transfer amount must be positive.");
+                return;
+            }
+
+            boolean transferred = requestKey != 0
+                    ? bank.transfer(source.getId(), targetId, cents, requestKey)
+                    : bank.transfer(source.getId(), targetId, cents);
+            if (transferred) {
+                out.printf("Success! $%.2f transferred to account %d. New balance: $%.2f%n",
+                        amount, targetId, account.getBalance());
+            } else if (cents > account.getBalanceCents()) {
+                out.println("Transaction Failed: Insufficient funds.");
             } else {
-                System.out.println("Transaction Failed: Could not process withdrawal.");
+                out.println("Transaction Failed: Could not process transfer.");
             }
-        } catch (java.util.InputMismatchException e) {
-            System.out.println("Invalid Input: Please enter a valid number.");
+        } catch (InputMismatchException e) {
+            out.println("Invalid Input: Please enter a valid number.");
             scanner.next(); // Clear the invalid input
+        } catch (IdempotencyCache.ConflictException | IdempotencyCache.FullException e) {
+            out.println("Transaction Failed: " + e.getMessage() + ".");
+        } catch (Bank.DurabilityException e) {
+            out.println("Transaction Completed, but the bank could not confirm it was saved (" + e.getCause().getMessage()
+                    + "). Do not repeat it; check your balance.");
+        } catch (UncheckedIOException e) {
+            out.println("Transaction Failed: Could not record transaction (" + e.getMessage() + ").");
         }
     }
 
@@ -148,14 +2127,30 @@ public class ATMSystem {
      * Starts the main ATM interaction loop.
      */
     public void start() {
-        System.out.println("Welcome to the Gemini Virtual ATM!");
+        out.println("Welcome to the Gemini Virtual ATM!");
+        if (account == null && !selectAccount()) {
+            out.flush();
+            scanner.close();
+            return;
+        }
+        if (canTransfer()) {
+            out.println("Account number: " + ((Bank.AccountRef) account).getId());
+        }
         boolean running = true;
 
         while (running) {
             displayMenu();
 
+            if (!scanner.hasNext()) {
+                break; // The terminal disconnected
+            }
             if (scanner.hasNextInt()) {
                 int choice = scanner.nextInt();
+                if (choice == maxChoice()) { // Exit is always the last entry
+                    running = false;
+                    out.println("\nThank you for using the ATM. Goodbye!");
+                    continue;
+                }
                 switch (choice) {
                     case 1:
                         checkBalance();
@@ -167,17 +2162,17 @@ public class ATMSystem {
                         handleWithdrawal();
                         break;
                     case 4:
-                        running = false;
-                        System.out.println("\nThank you for using the ATM. Goodbye!");
+                        handleTransfer(); // Only reached when offered: without transfers 4 is Exit
                         break;
                     default:
-                        System.out.println("Invalid choice. Please select an option between 1 and 4.");
+                        invalidChoice();
                 }
             } else {
-                System.out.println("Invalid input. Please enter a number for your choice.");
+                out.println("Invalid input. Please enter a number for your choice.");
                 scanner.next(); // Clear the invalid input (non-integer)
             }
         }
+        out.flush(); // Closing the scanner may close a terminal's connection
         scanner.close();
     }
 
@@ -185,13 +2180,92 @@ public class ATMSystem {
      * Main method to set up and run the ATM simulation.
      */
     public static void main(String[] args) {
-        // 1. Create the user's bank account with an initial balance
-        BankAccount userAccount = new BankAccount(500.00); // Starting with $500.00
+        if (args.length > 0 && args[0].equals("--stress")) {
+            boolean passed = false;
+            try {
+                passed = BankStress.run(Math.max(1, args.length > 1 ? Integer.parseInt(args[1]) : 5));
+            } catch (IOException e) {
+                System.out.println("[Error] Stress check could not use its files: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(passed ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("atm.server.port", 5050));
+            return;
+        }
+
+        // 1. Open the bank, restoring balances from earlier sessions. On first run, open the user's
+        //    bank account with an initial balance, plus a savings account to transfer to
+        Bank bank = openBank();
+        if (bank.size() == 0) {
+            bank.openAccount(50_000); // Starting with $500.00
+            bank.openAccount(0);
+        }
+        Account userAccount = bank.account(0);
 
         // 2. Create the ATM machine and connect it to the account
         ATMSystem atm = new ATMSystem(userAccount);
 
         // 3. Start the interactive session
         atm.start();
+
+        // 4. Checkpoint the balances so the next start replays nothing
+        try {
+            bank.close();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not close bank: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the session server: --serve [port]. Every terminal first enters its account number.
+     */
+    private static void serve(int port) {
+        Bank bank = openBank();
+        if (bank.size() == 0) {
+            bank.openAccount(50_000);
+            bank.openAccount(0);
+        }
+        try {
+            ATMSessionServer server = new ATMSessionServer(bank, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                    if (!server.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                        // Closing the bank under a running transaction would fail its journal append
+                        System.out.println("[Persistence Error] ATM sessions still running; the bank journal will be replayed on the next start.");
+                        return;
+                    }
+                    bank.close();
+                } catch (IOException e) {
+                    System.out.println("[Persistence Error] Could not close bank: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "atm-shutdown"));
+            System.out.println("[Info] ATM session server listening on port " + server.getPort());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("[Error] ATM session server stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the bank selected by atm.persistence: "journal" (default) keeps balances in
+     * atm.snapshotFile and atm.journalFile; "memory" keeps nothing between runs.
+     */
+    private static Bank openBank() {
+        if ("memory".equalsIgnoreCase(System.getProperty("atm.persistence", "journal"))) {
+            return new Bank();
+        }
+        try {
+            return Bank.open(Paths.get(System.getProperty("atm.snapshotFile", "bank.snapshot")),
+                    Paths.get(System.getProperty("atm.journalFile", "bank.journal")));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[Persistence Error] Could not open bank files, balances will not be saved: " + e.getMessage());
+            return new Bank();
+        }
     }
 }
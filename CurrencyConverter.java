@@ -1,10 +1,2533 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
 import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Registry of interned currency codes.
+ * Every three-letter code gets a small dense ordinal the first time it is seen, so rate tables
+ * can be plain arrays and looking a code up never allocates.
+ * <p>
+ * Lookups take no lock. Both tables are atomic arrays, and interning stores the code before its
+ * ordinal, so a thread that reads an ordinal also sees the code stored for it.
+ */
+final class CurrencyCodes {
+    private static final int KEYS = 26 * 26 * 26;
+    private static final AtomicIntegerArray ORDINALS = new AtomicIntegerArray(KEYS); // ordinal + 1 by packed code, 0 = not interned
+    private static final AtomicReferenceArray<String> CODES = new AtomicReferenceArray<>(KEYS);
+    private static volatile int count;
+
+    private CurrencyCodes() {
+    }
+
+    /**
+     * Packs three letters A-Z into 0..17575.
+     * @return The packed key, or -1 if any character is not an uppercase ASCII letter.
+     */
+    static int key(char a, char b, char c) {
+        int x = a - 'A';
+        int y = b - 'A';
+        int z = c - 'A';
+        if ((x | y | z) < 0 || x >= 26 || y >= 26 || z >= 26) {
+            return -1;
+        }
+        return (x * 26 + y) * 26 + z;
+    }
+
+    /**
+     * Returns the ordinal of a code, interning it if it is new.
+     * @return The ordinal, or -1 if the code is not three uppercase letters.
+     */
+    static int ordinal(String code) {
+        int key = code.length() == 3 ? key(code.charAt(0), code.charAt(1), code.charAt(2)) : -1;
+        return key < 0 ? -1 : ordinalOfKey(key);
+    }
+
+    static int ordinalOfKey(int key) {
+        int ordinal = ORDINALS.get(key) - 1;
+        return ordinal >= 0 ? ordinal : intern(key);
+    }
+
+    private static synchronized int intern(int key) {
+        int ordinal = ORDINALS.get(key) - 1;
+        if (ordinal < 0) {
+            ordinal = count;
+            CODES.set(ordinal, new String(new char[] {
+                (char) ('A' + key / 676), (char) ('A' + key / 26 % 26), (char) ('A' + key % 26) }));
+            ORDINALS.set(key, ordinal + 1); // Publishes the code stored above
+            count = ordinal + 1;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Number of codes interned so far; every ordinal is below it.
+     */
+    static int count() {
+        return count;
+    }
+
+    static String code(int ordinal) {
+        return CODES.get(ordinal);
+    }
+}
+
+/**
+ * One /latest/{base} response: the rates from a base currency to every target it lists,
+ * held in a dense array indexed by CurrencyCodes ordinal.
+ */
+class RateTable {
+    private final double[] rates; // NaN where the target is not listed
+    private final long publishedAtMillis; // When the API published these rates, 0 if unknown
+
+    RateTable(double[] rates) {
+        this(rates, 0);
+    }
+
+    RateTable(double[] rates, long publishedAtMillis) {
+        this.rates = rates;
+        this.publishedAtMillis = publishedAtMillis;
+    }
+
+    long publishedAtMillis() {
+        return publishedAtMillis;
+    }
+
+    /**
+     * Reads the whole "conversion_rates" object of an API response in a single pass.
+     * @throws IllegalArgumentException if the response is not well-formed JSON or has no rates.
+     */
+    static RateTable parse(String json) {
+        return new Parser(json).parseResponse();
+    }
+
+    /**
+     * Every ordinal with a rate is below this length.
+     */
+    int length() {
+        return rates.length;
+    }
+
+    /**
+     * Whether both tables list the same targets at the same rates.
+     */
+    boolean sameRates(RateTable other) {
+        int length = Math.max(rates.length, other.rates.length);
+        for (int ordinal = 0; ordinal < length; ordinal++) {
+            if (Double.doubleToLongBits(rate(ordinal)) != Double.doubleToLongBits(other.rate(ordinal))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of targets listed.
+     */
+    int count() {
+        int count = 0;
+        for (double rate : rates) {
+            if (!Double.isNaN(rate)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Looks up the rate for a target currency ordinal.
+     * @return The exchange rate (1 Base = X Target), or NaN if the target is not listed.
+     */
+    double rate(int ordinal) {
+        return ordinal >= 0 && ordinal < rates.length ? rates[ordinal] : Double.NaN;
+    }
+
+    /**
+     * Looks up the rate for a target currency.
+     * @return The exchange rate (1 Base = X Target), or -1.0 if the target is not listed.
+     */
+    double rate(String targetCurrency) {
+        double rate = rate(CurrencyCodes.ordinal(targetCurrency));
+        if (Double.isNaN(rate)) {
+            System.err.println("Error: Target currency code not found in API response.");
+            return -1.0;
+        }
+        return rate;
+    }
+
+    /**
+     * Minimal streaming JSON reader: it walks the response once, skips everything except the
+     * top-level "conversion_rates" object, and decodes its numbers without building strings.
+     */
+    private static final class Parser {
+        // Powers of ten that are exact in a double, for the fast decimal path
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+        private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+        private final String json;
+        private int pos;
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        RateTable parseResponse() {
+            double[] rates = null;
+            long publishedAtMillis = 0;
+            expect('{');
+            if (!tryConsume('}')) {
+                do {
+                    String key = readString();
+                    expect(':');
+                    if (rates == null && key.equals("conversion_rates")) {
+                        rates = readRates();
+                    } else if (key.equals("time_last_update_unix")) {
+                        publishedAtMillis = (long) readNumber() * 1000;
+                    } else {
+                        skipValue();
+                    }
+                } while (tryConsume(','));
+                expect('}');
+            }
+            if (rates == null) {
+                throw malformed("no conversion_rates object");
+            }
+            return new RateTable(rates, publishedAtMillis);
+        }
+
+        private double[] readRates() {
+            double[] rates = newRates(Math.max(CurrencyCodes.count(), 256));
+            expect('{');
+            if (tryConsume('}')) {
+                return rates;
+            }
+            do {
+                skipWhitespace();
+                int ordinal = readCodeOrdinal();
+                expect(':');
+                double rate = readNumber();
+                if (ordinal >= 0) {
+                    if (ordinal >= rates.length) {
+                        double[] grown = newRates(Math.max(ordinal + 1, rates.length * 2));
+                        System.arraycopy(rates, 0, grown, 0, rates.length);
+                        rates = grown;
+                    }
+                    rates[ordinal] = rate;
+                }
+            } while (tryConsume(','));
+            expect('}');
+            return rates;
+        }
+
+        private static double[] newRates(int length) {
+            double[] rates = new double[length];
+            Arrays.fill(rates, Double.NaN);
+            return rates;
+        }
+
+        // Reads a quoted key; three-letter codes are interned, anything else is skipped (-1).
+        private int readCodeOrdinal() {
+            int start = pos;
+            if (pos + 4 < json.length() && json.charAt(pos) == '"' && json.charAt(pos + 4) == '"') {
+                int key = CurrencyCodes.key(json.charAt(pos + 1), json.charAt(pos + 2), json.charAt(pos + 3));
+                if (key >= 0) {
+                    pos += 5;
+                    return CurrencyCodes.ordinalOfKey(key);
+                }
+            }
+            pos = start;
+            readString();
+            return -1;
+        }
+
+        private double readNumber() {
+            skipWhitespace();
+            int start = pos;
+            boolean negative = tryChar('-');
+            long mantissa = 0;
+            int significantDigits = 0;
+            int exponent = 0;
+            boolean anyDigit = false;
+            boolean fraction = false;
+            boolean exact = true;
+            for (; pos < json.length(); pos++) {
+                char c = json.charAt(pos);
+                if (isDigit(c)) {
+                    anyDigit = true;
+                    if (significantDigits < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        significantDigits += mantissa == 0 ? 0 : 1; // Leading zeros are free
+                        exponent -= fraction ? 1 : 0;
+                    } else {
+                        exact &= c == '0';
+                        exponent += fraction ? 0 : 1; // Integer digit beyond the mantissa
+                    }
+                } else if (c == '.' && !fraction) {
+                    fraction = true;
+                } else {
+                    break;
+                }
+            }
+            if (!anyDigit) {
+                throw malformed("number expected");
+            }
+            if (tryChar('e') || tryChar('E')) {
+                boolean negativeExponent = tryChar('-');
+                if (!negativeExponent) {
+                    tryChar('+');
+                }
+                int exponentStart = pos;
+                int value = 0;
+                while (pos < json.length() && isDigit(json.charAt(pos))) {
+                    value = Math.min(value * 10 + (json.charAt(pos++) - '0'), 10_000);
+                }
+                if (pos == exponentStart) {
+                    throw malformed("exponent expected");
+                }
+                exponent += negativeExponent ? -value : value;
+            }
+            if (!exact || mantissa >= MAX_EXACT_MANTISSA || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(json.substring(start, pos)); // Rare: fall back to the full algorithm
+            }
+            // Both operands are exact, so a single multiplication or division rounds correctly
+            double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+
+        private String readString() {
+            skipWhitespace();
+            expectChar('"');
+            int start = pos;
+            while (pos < json.length() && json.charAt(pos) != '"') {
+                pos += json.charAt(pos) == '\\' ? 2 : 1;
+            }
+            if (pos >= json.length()) {
+                throw malformed("unterminated string");
+            }
+            return json.substring(start, pos++);
+        }
+
+        private void skipValue() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw malformed("value expected");
+            }
+            char c = json.charAt(pos);
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (tryConsume(close)) {
+                    return;
+                }
+                do {
+                    if (close == '}') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (tryConsume(','));
+                expect(close);
+            } else if (c == '-' || isDigit(c)) {
+                readNumber();
+            } else {
+                int start = pos;
+                while (pos < json.length() && Character.isLetter(json.charAt(pos))) {
+                    pos++;
+                }
+                String literal = json.substring(start, pos);
+                if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")) {
+                    throw malformed("unexpected value");
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && json.charAt(pos) <= ' ') {
+                pos++;
+            }
+        }
+
+        private boolean tryConsume(char c) {
+            skipWhitespace();
+            return tryChar(c);
+        }
+
+        private boolean tryChar(char c) {
+            if (pos < json.length() && json.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            expectChar(c);
+        }
+
+        private void expectChar(char c) {
+            if (!tryChar(c)) {
+                throw malformed("'" + c + "' expected");
+            }
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private IllegalArgumentException malformed(String problem) {
+            return new IllegalArgumentException("Malformed rate response at offset " + pos + ": " + problem);
+        }
+    }
+}
+
+/**
+ * Local file holding the last fetched rate table of each base currency with its fetch time,
+ * so the converter can answer at startup and while the API is unreachable.
+ * Layout: [magic:4][version:4][tables:4], then per table
+ * [base:3][fetchedAtMillis:8][rates:4] followed by rates x [code:3][rate:8].
+ */
+final class RateSnapshotFile {
+    private static final int MAGIC = 0x43435253; // "CCRS"
+    private static final int VERSION = 1;
+
+    /** One saved table. */
+    static final class Table {
+        final String baseCurrency;
+        final long fetchedAtMillis;
+        final RateTable rates;
+
+        Table(String baseCurrency, long fetchedAtMillis, RateTable rates) {
+            this.baseCurrency = baseCurrency;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.rates = rates;
+        }
+    }
+
+    private final Path path;
+
+    RateSnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads the file through a read-only memory mapping.
+     * @return The saved tables; empty if there is no file yet.
+     * @throws IOException if the file cannot be read or is corrupt.
+     */
+    List<Table> load() throws IOException {
+        List<Table> tables = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return tables;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a rate snapshot: " + path);
+            }
+            int count = buffer.getInt();
+            for (int t = 0; t < count; t++) {
+                String baseCurrency = CurrencyCodes.code(readOrdinal(buffer));
+                long fetchedAtMillis = buffer.getLong();
+                int rateCount = buffer.getInt();
+                double[] rates = new double[Math.max(CurrencyCodes.count(), 1)];
+                Arrays.fill(rates, Double.NaN);
+                for (int r = 0; r < rateCount; r++) {
+                    int ordinal = readOrdinal(buffer);
+                    if (ordinal >= rates.length) {
+                        int oldLength = rates.length;
+                        rates = Arrays.copyOf(rates, Math.max(ordinal + 1, oldLength * 2));
+                        Arrays.fill(rates, oldLength, rates.length, Double.NaN);
+                    }
+                    rates[ordinal] = buffer.getDouble();
+                }
+                tables.add(new Table(baseCurrency, fetchedAtMillis, new RateTable(rates)));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt rate snapshot: " + path, e);
+        }
+        return tables;
+    }
+
+    private static int readOrdinal(ByteBuffer buffer) {
+        int key = CurrencyCodes.key((char) buffer.get(), (char) buffer.get(), (char) buffer.get());
+        if (key < 0) {
+            throw new IllegalArgumentException("bad currency code");
+        }
+        return CurrencyCodes.ordinalOfKey(key);
+    }
+
+    /**
+     * Replaces the file with the given tables. The data goes to a new temporary file in the same
+     * directory that is fsynced and atomically renamed, so a crash leaves either the old or the
+     * new snapshot, and two converters saving at once cannot write into the same temporary file.
+     */
+    synchronized void save(Collection<Table> tables) throws IOException {
+        int bytes = 12;
+        for (Table table : tables) {
+            bytes += 15 + 11 * table.rates.count();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(tables.size());
+        for (Table table : tables) {
+            putCode(buffer, table.baseCurrency);
+            buffer.putLong(table.fetchedAtMillis).putInt(table.rates.count());
+            for (int ordinal = 0; ordinal < table.rates.length(); ordinal++) {
+                double rate = table.rates.rate(ordinal);
+                if (!Double.isNaN(rate)) {
+                    putCode(buffer, CurrencyCodes.code(ordinal));
+                    buffer.putDouble(rate);
+                }
+            }
+        }
+        buffer.flip();
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp); // Only still there if the write or the rename failed
+        }
+    }
+
+    private static void putCode(ByteBuffer buffer, String code) {
+        buffer.put((byte) code.charAt(0)).put((byte) code.charAt(1)).put((byte) code.charAt(2));
+    }
+}
+
+/**
+ * Append-only history of every fetched rate table, for conversions at the rates in force at a
+ * given time.
+ *
+ * On disk each base currency is a series of tables. A record stores the time as a delta from
+ * the previous record of that base, and each rate XORed with the previous rate of the same
+ * pair with its leading zero bytes dropped, so an unchanged rate costs one byte and a small
+ * move a few. Layout: [magic:4][version:4], then records
+ * [length:4][base:3][timeDelta:varlong][rates:varint] followed by rates x [code:3][n:1][n bytes].
+ *
+ * In memory each base keeps a column of times and one aligned column of rates per target, so
+ * a point-in-time lookup is a binary search and a range query walks only the matching rows.
+ */
+final class RateHistory {
+    private static final int MAGIC = 0x43435248; // "CCRH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+
+    /** Receives the points of a range query in time order. */
+    interface PointConsumer {
+        void accept(long timeMillis, double rate);
+    }
+
+    private static final class Series {
+        long[] times = new long[16];
+        double[][] columns = new double[0][]; // By target ordinal, aligned with times; NaN = not listed
+        long[] lastBits = new long[0]; // Previous rate bits by target ordinal (the XOR base)
+        int size;
+
+        double[] column(int target) {
+            if (target >= columns.length) {
+                columns = Arrays.copyOf(columns, Math.max(target + 1, CurrencyCodes.count()));
+                lastBits = Arrays.copyOf(lastBits, columns.length);
+            }
+            if (columns[target] == null) {
+                columns[target] = new double[times.length];
+                Arrays.fill(columns[target], Double.NaN);
+            }
+            return columns[target];
+        }
+
+        void addRow(long time) {
+            if (size == times.length) {
+                int oldLength = times.length;
+                times = Arrays.copyOf(times, oldLength * 2);
+                for (int t = 0; t < columns.length; t++) {
+                    if (columns[t] != null) {
+                        columns[t] = Arrays.copyOf(columns[t], times.length);
+                        Arrays.fill(columns[t], oldLength, times.length, Double.NaN);
+                    }
+                }
+            }
+            times[size++] = time;
+        }
+
+        long lastTime() {
+            return size == 0 ? 0 : times[size - 1];
+        }
+
+        // Index of the last row at or before the time, or -1.
+        int floor(long timeMillis) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= timeMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        double rate(int target, int row) {
+            return target >= 0 && target < columns.length && columns[target] != null ? columns[target][row] : Double.NaN;
+        }
+    }
+
+    private final Path path;
+    private Series[] byBase = new Series[0]; // By base ordinal
+    private FileChannel channel; // Opened in append mode on first use; its exclusive lock guards the file
+    private FileChannel reader; // Kept open: closing any channel to the file would drop the process's lock
+    private long loadedBytes; // File bytes already decoded into memory; 0 until the header is checked
+
+    /**
+     * Nothing is read until the history is first loaded or appended to, so opening it is free.
+     */
+    RateHistory(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads the history into memory, creating the file if needed, along with any records other
+     * processes appended since the last load. Call it before querying.
+     * A torn record at the end (from a crash during an append) is cut off, and so is everything
+     * from a corrupt record on, since later records are stored as deltas from it.
+     */
+    synchronized void load() throws IOException {
+        FileLock lock = channel().lock();
+        try {
+            catchUp();
+        } finally {
+            lock.release();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            reader = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    // Called holding the file lock, so no other process is halfway through an append.
+    private void catchUp() throws IOException {
+        long size = channel.size();
+        if (loadedBytes == 0 && size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header);
+            loadedBytes = HEADER_BYTES;
+            return;
+        }
+        if (size == loadedBytes) {
+            return;
+        }
+        long from = loadedBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size - from));
+        while (buffer.hasRemaining() && reader.read(buffer, from + buffer.position()) >= 0) {
+            // Read the rest
+        }
+        buffer.flip();
+        if (from == 0) {
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a rate history: " + path);
+            }
+            loadedBytes = HEADER_BYTES;
+        }
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break; // Torn tail
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            if (!decode(record)) {
+                System.err.println("Warning: Dropping the rate history from the corrupt record at offset "
+                        + loadedBytes + " of " + path + ".");
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            loadedBytes += 4 + length;
+        }
+        if (loadedBytes < size) {
+            channel.truncate(loadedBytes);
+        }
+    }
+
+    // Applies one record to memory; a malformed one is rejected before anything changes.
+    private boolean decode(ByteBuffer record) {
+        int base;
+        long delta;
+        int[] targets;
+        long[] xors;
+        try {
+            base = readOrdinal(record);
+            delta = readVarLong(record);
+            long count = readVarLong(record);
+            if (delta <= 0 || count < 0 || count > record.remaining() / 4) {
+                return false;
+            }
+            targets = new int[(int) count];
+            xors = new long[(int) count];
+            for (int r = 0; r < count; r++) {
+                targets[r] = readOrdinal(record);
+                int n = record.get();
+                if (n < 0 || n > 8) {
+                    return false;
+                }
+                for (int b = 0; b < n; b++) {
+                    xors[r] = xors[r] << 8 | (record.get() & 0xFF);
+                }
+            }
+            if (record.hasRemaining()) {
+                return false;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+        Series series = series(base);
+        series.addRow(series.lastTime() + delta);
+        int row = series.size - 1;
+        for (int r = 0; r < targets.length; r++) {
+            double[] column = series.column(targets[r]);
+            long bits = series.lastBits[targets[r]] ^ xors[r];
+            series.lastBits[targets[r]] = bits;
+            column[row] = Double.longBitsToDouble(bits);
+        }
+        return true;
+    }
+
+    /**
+     * Appends a fetched table unless the base already has one at or after its time, and forces
+     * it to disk. The file lock keeps appends from several converters whole and in order.
+     */
+    synchronized void append(String baseCurrency, long timeMillis, RateTable table) throws IOException {
+        FileLock lock = channel().lock();
+        try {
+            catchUp(); // Records from other processes are XOR bases for this one
+            int base = CurrencyCodes.ordinal(baseCurrency);
+            Series series = series(base);
+            if (series.size > 0 && timeMillis <= series.lastTime()) {
+                return; // Same published table fetched again
+            }
+            ByteBuffer record = ByteBuffer.allocate(4 + 3 + 10 + 5 + table.count() * 12);
+            record.position(4);
+            putCode(record, baseCurrency);
+            putVarLong(record, timeMillis - series.lastTime());
+            putVarLong(record, table.count());
+            for (int target = 0; target < table.length(); target++) {
+                double rate = table.rate(target);
+                if (Double.isNaN(rate)) {
+                    continue;
+                }
+                long previous = target < series.lastBits.length ? series.lastBits[target] : 0;
+                long xor = Double.doubleToLongBits(rate) ^ previous;
+                putCode(record, CurrencyCodes.code(target));
+                int n = 8 - Long.numberOfLeadingZeros(xor) / 8; // Significant bytes; 0 when unchanged
+                record.put((byte) n);
+                for (int b = n - 1; b >= 0; b--) {
+                    record.put((byte) (xor >>> 8 * b));
+                }
+            }
+            int length = record.position() - 4;
+            record.putInt(0, length);
+            record.flip();
+            writeFully(record.duplicate());
+            channel.force(false);
+            // Memory changes only once the record is on disk, so a failed write leaves no gap in the chain
+            record.position(4);
+            decode(record);
+            loadedBytes += 4 + length;
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The rate from base to target in force at the time, or NaN if none was recorded.
+     */
+    synchronized double rateAt(String baseCurrency, String targetCurrency, long timeMillis) {
+        Series series = existing(CurrencyCodes.ordinal(baseCurrency));
+        int row = series == null ? -1 : series.floor(timeMillis);
+        return row < 0 ? Double.NaN : series.rate(CurrencyCodes.ordinal(targetCurrency), row);
+    }
+
+    /**
+     * @return The whole table of a base in force at the time, or null if none was recorded.
+     */
+    synchronized RateTable tableAt(String baseCurrency, long timeMillis) {
+        Series series = existing(CurrencyCodes.ordinal(baseCurrency));
+        int row = series == null ? -1 : series.floor(timeMillis);
+        if (row < 0) {
+            return null;
+        }
+        double[] rates = new double[series.columns.length];
+        for (int target = 0; target < rates.length; target++) {
+            rates[target] = series.rate(target, row);
+        }
+        return new RateTable(rates);
+    }
+
+    /**
+     * Passes every recorded rate from base to target with from <= time <= to, oldest first.
+     * @return The number of points passed.
+     */
+    synchronized int forEachInRange(String baseCurrency, String targetCurrency, long from, long to, PointConsumer consumer) {
+        Series series = existing(CurrencyCodes.ordinal(baseCurrency));
+        int target = CurrencyCodes.ordinal(targetCurrency);
+        if (series == null) {
+            return 0;
+        }
+        int passed = 0;
+        for (int row = series.floor(from - 1) + 1; row < series.size && series.times[row] <= to; row++) {
+            double rate = series.rate(target, row);
+            if (!Double.isNaN(rate)) {
+                consumer.accept(series.times[row], rate);
+                passed++;
+            }
+        }
+        return passed;
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            reader.close();
+        }
+    }
+
+    private Series existing(int base) {
+        return base >= 0 && base < byBase.length ? byBase[base] : null;
+    }
+
+    private Series series(int base) {
+        if (base >= byBase.length) {
+            byBase = Arrays.copyOf(byBase, Math.max(base + 1, CurrencyCodes.count()));
+        }
+        if (byBase[base] == null) {
+            byBase[base] = new Series();
+        }
+        return byBase[base];
+    }
+
+    private static int readOrdinal(ByteBuffer buffer) {
+        int key = CurrencyCodes.key((char) buffer.get(), (char) buffer.get(), (char) buffer.get());
+        if (key < 0) {
+            throw new IllegalArgumentException("bad currency code");
+        }
+        return CurrencyCodes.ordinalOfKey(key);
+    }
+
+    private static void putCode(ByteBuffer buffer, String code) {
+        buffer.put((byte) code.charAt(0)).put((byte) code.charAt(1)).put((byte) code.charAt(2));
+    }
+
+    // Zigzag varint: small magnitudes of either sign take few bytes.
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = value << 1 ^ value >> 63;
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) (zigzag & 0x7F | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 63) {
+                throw new IllegalArgumentException("varint too long");
+            }
+            byte b = buffer.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return zigzag >>> 1 ^ -(zigzag & 1);
+    }
+}
+
+/**
+ * In-process cache of rate tables keyed by base currency.
+ * A table younger than the TTL is served as is. An older one is still served, up to the
+ * staleness limit, while a single background refresh replaces it; that also keeps the
+ * converter answering while the API is unreachable. Concurrent misses for the same base share
+ * one fetch. Every fetched table is saved to a snapshot file, which seeds the cache at startup,
+ * and appended to the rate history when there is one.
+ */
+class RateCache {
+    private final Function<String, CompletableFuture<RateTable>> loader; // Completes with null if the fetch failed
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+    private final RateSnapshotFile snapshot;
+    private final RateHistory history; // null to keep no history
+    private final ExecutorService writer; // Saves fetched tables off the network threads
+    private final ConcurrentHashMap<String, RateSnapshotFile.Table> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<RateTable>> inFlight = new ConcurrentHashMap<>();
+
+    RateCache(Function<String, CompletableFuture<RateTable>> loader, long ttlMillis, long maxStaleMillis,
+            RateSnapshotFile snapshot, RateHistory history) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.snapshot = snapshot;
+        this.history = history;
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "rate-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (RateSnapshotFile.Table table : snapshot.load()) {
+                entries.put(table.baseCurrency, table);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring the saved exchange rates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the rate table for a base currency, fetching it only when there is no usable copy.
+     * @return The table, or null if it could not be fetched.
+     */
+    RateTable get(String baseCurrency) {
+        try {
+            return getAsync(baseCurrency).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to fetch exchange rates: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Same as get, without blocking: a usable table completes the future at once.
+     * @return A future of the table, which is null if it could not be fetched.
+     */
+    CompletableFuture<RateTable> getAsync(String baseCurrency) {
+        RateSnapshotFile.Table entry = entries.get(baseCurrency);
+        long age = entry == null ? -1 : System.currentTimeMillis() - entry.fetchedAtMillis;
+        if (age >= 0) { // A negative age means the clock was set back; the table's age is unknown
+            if (age < ttlMillis) {
+                return CompletableFuture.completedFuture(entry.rates);
+            }
+            if (age < maxStaleMillis) {
+                refresh(baseCurrency); // Revalidate in the background, serve the stale table now
+                return CompletableFuture.completedFuture(entry.rates);
+            }
+        }
+        return refresh(baseCurrency);
+    }
+
+    // Starts a fetch for the base unless one is already running, and returns the shared result.
+    private CompletableFuture<RateTable> refresh(String baseCurrency) {
+        CompletableFuture<RateTable> created = new CompletableFuture<>();
+        CompletableFuture<RateTable> running = inFlight.putIfAbsent(baseCurrency, created);
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<RateTable> load;
+        try {
+            load = loader.apply(baseCurrency);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((table, error) -> {
+            long now = System.currentTimeMillis();
+            RateSnapshotFile.Table previous = null;
+            if (table != null) {
+                previous = entries.put(baseCurrency, new RateSnapshotFile.Table(baseCurrency, now, table));
+            }
+            boolean changed = previous == null || !previous.rates.sameRates(table);
+            inFlight.remove(baseCurrency, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+                return;
+            }
+            created.complete(table);
+            if (table != null) {
+                writer.execute(() -> save(baseCurrency, now, table, changed));
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Waits up to a few seconds for pending saves, so a short run does not exit before its
+     * rates reach disk or halfway through writing the snapshot.
+     */
+    void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("Gave up waiting to save exchange rates.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // An unchanged table only moves the fetch time, which is not worth an fsync; after a restart
+    // the saved copy just looks older than it is and is revalidated sooner.
+    private void save(String baseCurrency, long fetchedAtMillis, RateTable table, boolean changed) {
+        try {
+            if (changed) {
+                snapshot.save(entries.values());
+            }
+            if (history != null) {
+                long publishedAt = table.publishedAtMillis();
+                history.append(baseCurrency, publishedAt > 0 ? publishedAt : fetchedAtMillis, table);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not save exchange rates: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Every base-to-target rate derived from a single reference table, precomputed as an N x N
+ * matrix indexed by CurrencyCodes ordinals.
+ *
+ * Precision: with reference rates r (1 Reference = r[c] of currency c), the rate from base b to
+ * target t is r[t] / r[b], computed as one correctly rounded double division. A derived rate
+ * therefore carries the precision of the published reference rates plus at most half an ulp.
+ * Pairs from the reference reproduce the published rate exactly; pairs into it are 1 / r[b],
+ * which is the rounded reciprocal and may differ from what the API publishes for that base. A
+ * pair with a currency the reference does not list has no rate (NaN).
+ */
+final class CrossRateMatrix {
+    private final RateTable source;
+    private final int size;
+    private final double[] rates; // rates[base * size + target]
+
+    private CrossRateMatrix(RateTable source, int size, double[] rates) {
+        this.source = source;
+        this.size = size;
+        this.rates = rates;
+    }
+
+    static CrossRateMatrix build(RateTable reference) {
+        int size = Math.min(reference.length(), CurrencyCodes.count()); // Every listed code is interned
+        double[] rates = new double[size * size];
+        for (int base = 0; base < size; base++) {
+            double baseRate = reference.rate(base);
+            for (int target = 0; target < size; target++) {
+                rates[base * size + target] = reference.rate(target) / baseRate;
+            }
+        }
+        return new CrossRateMatrix(reference, size, rates);
+    }
+
+    /**
+     * The reference table this matrix was built from.
+     */
+    RateTable source() {
+        return source;
+    }
+
+    /**
+     * @return The exchange rate (1 Base = X Target), or NaN if either currency is not listed.
+     */
+    double rate(int baseOrdinal, int targetOrdinal) {
+        if (baseOrdinal < 0 || baseOrdinal >= size || targetOrdinal < 0 || targetOrdinal >= size) {
+            return Double.NaN;
+        }
+        return rates[baseOrdinal * size + targetOrdinal];
+    }
+}
+
+/**
+ * Conversion engine that serves every currency pair from one cached reference table.
+ * When the cache hands out a refreshed table, the matrix is rebuilt off to the side and swapped
+ * in with a single volatile write, so readers always see one complete matrix.
+ */
+class CrossRateEngine {
+    private final RateCache cache;
+    private final String referenceCurrency;
+    private volatile CrossRateMatrix matrix;
+
+    CrossRateEngine(RateCache cache, String referenceCurrency) {
+        this.cache = cache;
+        this.referenceCurrency = referenceCurrency;
+    }
+
+    /**
+     * @return The matrix for the current reference table, or null if it could not be fetched.
+     */
+    CrossRateMatrix matrix() {
+        return matrixFor(cache.get(referenceCurrency));
+    }
+
+    /**
+     * Same as matrix, without blocking.
+     */
+    CompletableFuture<CrossRateMatrix> matrixAsync() {
+        return cache.getAsync(referenceCurrency).thenApply(this::matrixFor);
+    }
+
+    private CrossRateMatrix matrixFor(RateTable reference) {
+        if (reference == null) {
+            return null;
+        }
+        CrossRateMatrix current = matrix;
+        if (current == null || current.source() != reference) {
+            current = CrossRateMatrix.build(reference);
+            matrix = current;
+        }
+        return current;
+    }
+
+    /**
+     * @return The exchange rate (1 Base = X Target), or -1.0 if it cannot be derived.
+     */
+    double rate(String baseCurrency, String targetCurrency) {
+        CrossRateMatrix current = matrix();
+        if (current == null) {
+            return -1.0;
+        }
+        int base = CurrencyCodes.ordinal(baseCurrency);
+        int target = CurrencyCodes.ordinal(targetCurrency);
+        if (Double.isNaN(current.rate(base, base))) {
+            System.err.println("Error: Base currency code not found in API response.");
+            return -1.0;
+        }
+        double rate = current.rate(base, target);
+        if (Double.isNaN(rate)) {
+            System.err.println("Error: Target currency code not found in API response.");
+            return -1.0;
+        }
+        return rate;
+    }
+}
+
+/**
+ * Money arithmetic on scaled longs.
+ * Amounts are whole minor units of their currency (cents for USD, yen for JPY) and rates are
+ * fixed-point with RATE_SCALE_DIGITS decimals, so a conversion is one integer multiplication
+ * and one integer division with an explicit rounding mode. The fast path allocates nothing;
+ * products that do not fit in a long, and the audit path, use BigDecimal.
+ *
+ * Rates published with at most RATE_SCALE_DIGITS decimals are represented exactly; derived
+ * (cross) rates are rounded half-even to that many decimals.
+ */
+final class MoneyMath {
+    static final int RATE_SCALE_DIGITS = 9;
+    static final long RATE_SCALE = 1_000_000_000L;
+    private static final long[] POWERS_OF_TEN = { // 10^0 .. 10^18
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L,
+        10_000_000L, 100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L,
+        1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L,
+        10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L };
+    private static final int MAX_MINOR_DIGITS = 4;
+    private static final byte[] MINOR_DIGITS = new byte[26 * 26 * 26]; // Digits + 1 by ordinal, 0 = not looked up
+
+    private MoneyMath() {
+    }
+
+    /**
+     * Number of minor-unit digits of a currency (2 for USD, 0 for JPY, 3 for KWD); 2 if unknown.
+     */
+    static int minorDigits(int ordinal) {
+        int cached = MINOR_DIGITS[ordinal] - 1;
+        if (cached >= 0) {
+            return cached;
+        }
+        int digits = 2;
+        try {
+            int fractionDigits = Currency.getInstance(CurrencyCodes.code(ordinal)).getDefaultFractionDigits();
+            if (fractionDigits >= 0 && fractionDigits <= MAX_MINOR_DIGITS) {
+                digits = fractionDigits;
+            }
+        } catch (IllegalArgumentException e) {
+            // Not an ISO 4217 code: keep the default
+        }
+        MINOR_DIGITS[ordinal] = (byte) (digits + 1);
+        return digits;
+    }
+
+    /**
+     * Tells whether an amount has no more decimals than a currency's minor units (trailing zeros
+     * do not count), so it converts to minor units without rounding.
+     */
+    static boolean fitsDigits(BigDecimal amount, int digits) {
+        return amount.scale() <= digits || amount.stripTrailingZeros().scale() <= digits;
+    }
+
+    static String tooManyDecimals(String currency, int digits) {
+        return "Amount has more decimals than " + currency + " allows (" + digits + ").";
+    }
+
+    /**
+     * Scales a rate to RATE_SCALE_DIGITS decimals, rounding half-even.
+     */
+    static long scaleRate(double rate) {
+        double scaled = rate * RATE_SCALE;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        long result = (long) floor;
+        if (fraction > 0.5 || fraction == 0.5 && (result & 1) != 0) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Converts minor units of the base currency to minor units of the target.
+     * @param scaledRate The rate as returned by scaleRate.
+     * @throws ArithmeticException if the mode is UNNECESSARY and rounding is needed, or the
+     *         result does not fit in a long.
+     */
+    static long convert(long amountMinor, long scaledRate, int baseDigits, int targetDigits, RoundingMode mode) {
+        // amount / 10^baseDigits * rate / 10^9 * 10^targetDigits
+        int shift = targetDigits - baseDigits;
+        long divisor = POWERS_OF_TEN[RATE_SCALE_DIGITS + Math.max(0, -shift)];
+        long multiplier = POWERS_OF_TEN[Math.max(0, shift)];
+        long product = amountMinor * scaledRate;
+        if (Math.multiplyHigh(amountMinor, scaledRate) != product >> 63
+                || Math.multiplyHigh(product, multiplier) != (product * multiplier) >> 63) {
+            return convertExact(amountMinor, scaledRate, baseDigits, targetDigits, mode)
+                    .unscaledValue().longValueExact(); // Rare: beyond 64 bits
+        }
+        return divide(product * multiplier, divisor, mode);
+    }
+
+    /**
+     * Audit path: the same conversion carried out in BigDecimal.
+     * @return The converted amount with targetDigits decimals.
+     */
+    static BigDecimal convertExact(long amountMinor, long scaledRate, int baseDigits, int targetDigits, RoundingMode mode) {
+        return BigDecimal.valueOf(amountMinor, baseDigits)
+                .multiply(BigDecimal.valueOf(scaledRate, RATE_SCALE_DIGITS))
+                .setScale(targetDigits, mode);
+    }
+
+    // Divides by a positive divisor, rounding the quotient as the mode says.
+    private static long divide(long dividend, long divisor, RoundingMode mode) {
+        int sign = dividend < 0 ? -1 : 1;
+        return sign * round(Math.abs(dividend / divisor), Math.abs(dividend % divisor), divisor, sign, mode);
+    }
+
+    /**
+     * Rounds a quotient magnitude given the magnitude of its remainder.
+     * @param sign The sign of the exact quotient.
+     */
+    private static long round(long quotient, long remainder, long divisor, int sign, RoundingMode mode) {
+        if (remainder == 0) {
+            return quotient;
+        }
+        boolean awayFromZero;
+        switch (mode) {
+            case UP:
+                awayFromZero = true;
+                break;
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case CEILING:
+                awayFromZero = sign > 0;
+                break;
+            case FLOOR:
+                awayFromZero = sign < 0;
+                break;
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary");
+            default:
+                int half = Long.compare(remainder, divisor - remainder);
+                awayFromZero = half > 0 || half == 0
+                        && (mode == RoundingMode.HALF_UP || mode == RoundingMode.HALF_EVEN && (quotient & 1) != 0);
+        }
+        return awayFromZero ? quotient + 1 : quotient;
+    }
+
+    /**
+     * Parses a plain decimal amount ("1234.5", "-0.07") into minor units, rounding extra decimals.
+     * @return The amount in minor units, or Long.MIN_VALUE if the text is not a decimal number
+     *         or does not fit.
+     * @throws ArithmeticException if extra decimals are not all zero and the mode is UNNECESSARY.
+     */
+    static long parseMinor(CharSequence text, int from, int to, int digits, RoundingMode mode) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        boolean negative = from < to && text.charAt(from) == '-';
+        if (negative || from < to && text.charAt(from) == '+') {
+            from++;
+        }
+        long value = 0;
+        int decimals = -1; // Digits seen after the point, -1 before it
+        int extra = 0; // Decimals beyond the currency's digits
+        long dropped = 0; // Those extra decimals, as an integer
+        boolean anyDigit = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            anyDigit = true;
+            if (decimals >= digits) {
+                if (extra < 18) {
+                    dropped = dropped * 10 + (c - '0');
+                    extra++;
+                } else if (c != '0') {
+                    dropped |= 1; // Sticky digit: keeps "more than half" decisions correct
+                }
+                continue;
+            }
+            if (value > (Long.MAX_VALUE - 9) / 10) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+            if (decimals >= 0) {
+                decimals++;
+            }
+        }
+        if (!anyDigit) {
+            return Long.MIN_VALUE;
+        }
+        for (int d = Math.max(decimals, 0); d < digits; d++) {
+            if (value > Long.MAX_VALUE / 10) {
+                return Long.MIN_VALUE;
+            }
+            value *= 10;
+        }
+        value = round(value, dropped, POWERS_OF_TEN[extra], negative ? -1 : 1, mode);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Appends minor units as a plain decimal with the currency's digits ("-12.05", "1500").
+     */
+    static StringBuilder appendMinor(StringBuilder out, long minor, int digits) {
+        if (minor < 0) {
+            out.append('-');
+        }
+        long magnitude = Math.abs(minor);
+        long scale = POWERS_OF_TEN[digits];
+        out.append(magnitude / scale);
+        if (digits > 0) {
+            out.append('.');
+            long fraction = magnitude % scale;
+            for (long p = scale / 10; p > 1 && fraction < p; p /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+        return out;
+    }
+}
+
+/**
+ * Result of a conversion: both amounts in minor units of their currencies and the rate used.
+ */
+final class Conversion {
+    final String baseCurrency;
+    final String targetCurrency;
+    final long amountMinor;
+    final int baseDigits;
+    final long convertedMinor;
+    final int targetDigits;
+    final long scaledRate; // Rate with MoneyMath.RATE_SCALE_DIGITS decimals
+
+    private Conversion(String baseCurrency, String targetCurrency, long amountMinor, int baseDigits,
+            long convertedMinor, int targetDigits, long scaledRate) {
+        this.baseCurrency = baseCurrency;
+        this.targetCurrency = targetCurrency;
+        this.amountMinor = amountMinor;
+        this.baseDigits = baseDigits;
+        this.convertedMinor = convertedMinor;
+        this.targetDigits = targetDigits;
+        this.scaledRate = scaledRate;
+    }
+
+    /**
+     * Converts on the fixed-point path. The amount is taken as given; only the converted amount
+     * is rounded, with the mode.
+     * @throws IllegalArgumentException if the amount has more decimals than the base currency.
+     * @throws ArithmeticException if the amount does not fit in a long of minor units, or the mode
+     *         is UNNECESSARY and the converted amount needs rounding.
+     */
+    static Conversion of(String baseCurrency, String targetCurrency, BigDecimal amount, double rate, RoundingMode mode) {
+        int baseDigits = MoneyMath.minorDigits(CurrencyCodes.ordinal(baseCurrency));
+        int targetDigits = MoneyMath.minorDigits(CurrencyCodes.ordinal(targetCurrency));
+        if (!MoneyMath.fitsDigits(amount, baseDigits)) {
+            throw new IllegalArgumentException(MoneyMath.tooManyDecimals(baseCurrency, baseDigits));
+        }
+        long amountMinor = amount.setScale(baseDigits, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        long scaledRate = MoneyMath.scaleRate(rate);
+        long convertedMinor = MoneyMath.convert(amountMinor, scaledRate, baseDigits, targetDigits, mode);
+        return new Conversion(baseCurrency, targetCurrency, amountMinor, baseDigits, convertedMinor, targetDigits, scaledRate);
+    }
+
+    BigDecimal amount() {
+        return BigDecimal.valueOf(amountMinor, baseDigits);
+    }
+
+    BigDecimal converted() {
+        return BigDecimal.valueOf(convertedMinor, targetDigits);
+    }
+
+    BigDecimal rate() {
+        return BigDecimal.valueOf(scaledRate, MoneyMath.RATE_SCALE_DIGITS).stripTrailingZeros();
+    }
+
+    @Override
+    public String toString() {
+        return amount().toPlainString() + " " + baseCurrency + " = " + converted().toPlainString() + " " + targetCurrency
+                + " (1 " + baseCurrency + " = " + rate().toPlainString() + " " + targetCurrency + ")";
+    }
+}
+
+/**
+ * Non-blocking conversions for services embedding the converter (CurrencyConverter.convertAsync).
+ * A conversion is a chain of stages on the rate cache's future: a cached table completes it at
+ * once, and a miss continues on the HTTP client's threads when the shared fetch answers, so no
+ * thread waits for the network however many conversions are pending. With a completion executor
+ * the result is handed to one of its threads instead (a virtual thread per request on Java 21+),
+ * so callers may block in their dependent stages without stalling the HTTP client.
+ */
+class AsyncConverter {
+    private final RateCache rates;
+    private final CrossRateEngine crossRates; // null: one table per base
+    private final RoundingMode rounding;
+    private final Executor completions; // null: complete on the thread that produced the rate
+
+    AsyncConverter(RateCache rates, CrossRateEngine crossRates, RoundingMode rounding, Executor completions) {
+        this.rates = rates;
+        this.crossRates = crossRates;
+        this.rounding = rounding;
+        this.completions = completions;
+    }
+
+    /**
+     * Converts an amount at the latest rates.
+     * @return A future of the conversion. It fails with IllegalArgumentException for bad input
+     *         and IllegalStateException when no rate is available.
+     */
+    CompletableFuture<Conversion> convert(String baseCurrency, String targetCurrency, BigDecimal amount) {
+        CompletableFuture<Conversion> conversion = convertInStages(baseCurrency, targetCurrency, amount);
+        if (completions == null) {
+            return conversion;
+        }
+        return conversion.whenCompleteAsync((result, error) -> {
+            // Only moves the completion onto an executor thread
+        }, completions);
+    }
+
+    private CompletableFuture<Conversion> convertInStages(String baseCurrency, String targetCurrency, BigDecimal amount) {
+        int base = CurrencyCodes.ordinal(baseCurrency);
+        int target = CurrencyCodes.ordinal(targetCurrency);
+        if (base < 0 || target < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Currency codes must be three uppercase letters."));
+        }
+        if (amount.signum() <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Amount must be positive."));
+        }
+        if (!MoneyMath.fitsDigits(amount, MoneyMath.minorDigits(base))) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    MoneyMath.tooManyDecimals(baseCurrency, MoneyMath.minorDigits(base))));
+        }
+        CompletableFuture<Double> rate = crossRates != null
+                ? crossRates.matrixAsync().thenApply(matrix -> matrix == null ? Double.NaN : matrix.rate(base, target))
+                : rates.getAsync(baseCurrency).thenApply(table -> table == null ? Double.NaN : table.rate(target));
+        return rate.thenApply(r -> {
+            if (Double.isNaN(r)) {
+                throw new IllegalStateException("No exchange rate available for " + baseCurrency + " to " + targetCurrency + ".");
+            }
+            return Conversion.of(baseCurrency, targetCurrency, amount, r, rounding);
+        });
+    }
+}
+
+/**
+ * Batch conversion of CSV rows "amount,base,target".
+ * Rows are read in chunks. Each chunk's rate tables are resolved once, up front, and then its
+ * rows are converted in parallel and written out in input order, so memory stays bounded
+ * however long the ledger is. Output rows are "amount,base,target,rate,converted,error".
+ * A first row whose first field is "amount" is taken as a header. Fields may be quoted as in
+ * RFC 4180, but a quoted field cannot hold a comma (write amounts without grouping separators),
+ * and a row cannot span lines. A row that cannot be converted is echoed with the error in the
+ * last column; one without exactly three fields is echoed whole, as a single quoted field.
+ * The tables come from the same non-blocking sources as AsyncConverter: every base a chunk
+ * needs is requested at once, and only the reader waits for them, once per chunk.
+ */
+class BatchConverter {
+    private static final int CHUNK_LINES = 16_384;
+
+    private final Supplier<CompletableFuture<CrossRateMatrix>> crossRates; // null: resolve one table per base
+    private final Function<String, CompletableFuture<RateTable>> tables; // Completes with null if a base has no rates
+    private final RoundingMode rounding;
+    private final boolean audit; // Check every result against the BigDecimal path
+    private RateTable[] tablesByBase = new RateTable[0]; // Resolved tables by base ordinal
+    private boolean[] resolved = new boolean[0];
+
+    BatchConverter(Supplier<CompletableFuture<CrossRateMatrix>> crossRates, Function<String, CompletableFuture<RateTable>> tables,
+            RoundingMode rounding, boolean audit) {
+        this.crossRates = crossRates;
+        this.tables = tables;
+        this.rounding = rounding;
+        this.audit = audit;
+    }
+
+    /**
+     * Converts every row of the input.
+     * @return The number of rows that could not be converted.
+     */
+    long run(BufferedReader in, Writer out) throws IOException {
+        String[] lines = new String[CHUNK_LINES];
+        String[] results = new String[CHUNK_LINES];
+        boolean[] failures = new boolean[CHUNK_LINES];
+        int[] bases = new int[CHUNK_LINES];
+        long failed = 0;
+        long firstLineNumber = 1;
+        boolean firstChunk = true;
+        out.write("amount,base,target,rate,converted,error\n");
+        while (true) {
+            int count = 0;
+            String line;
+            while (count < CHUNK_LINES && (line = in.readLine()) != null) {
+                lines[count++] = line;
+            }
+            if (count == 0) {
+                break;
+            }
+            int skip = firstChunk && isHeader(lines[0]) ? 1 : 0;
+            firstChunk = false;
+            int chunkSize = count;
+            CrossRateMatrix matrix = crossRates == null ? null : await(crossRates.get());
+            if (crossRates == null) {
+                resolveTables(lines, bases, skip, chunkSize);
+            }
+            long chunkStart = firstLineNumber;
+            IntStream.range(skip, chunkSize).parallel().forEach(i -> {
+                failures[i] = false;
+                results[i] = convert(lines[i], matrix, chunkStart + i, failures, i);
+            });
+            for (int i = skip; i < chunkSize; i++) {
+                if (results[i] == null) {
+                    continue; // Blank line
+                }
+                if (failures[i]) {
+                    failed++;
+                }
+                out.write(results[i]);
+                out.write('\n');
+            }
+            firstLineNumber += count;
+        }
+        out.flush();
+        return failed;
+    }
+
+    private static boolean isHeader(String line) {
+        String fields = plain(line);
+        if (fields == null) {
+            return false;
+        }
+        int comma = fields.indexOf(',');
+        return fields.substring(0, comma < 0 ? fields.length() : comma).trim().equalsIgnoreCase("amount");
+    }
+
+    /**
+     * Removes RFC 4180 quoting from a row.
+     * @return The row with plain fields, or null if a quote is unbalanced or a quoted field holds a comma.
+     */
+    private static String plain(String line) {
+        if (line.indexOf('"') < 0) {
+            return line;
+        }
+        StringBuilder fields = new StringBuilder(line.length());
+        int i = 0;
+        while (true) {
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i == line.length()) {
+                        return null; // Unterminated
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"' && i < line.length() && line.charAt(i) == '"') {
+                        fields.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        break;
+                    } else if (c == ',') {
+                        return null;
+                    } else {
+                        fields.append(c);
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    return null; // Text after the closing quote
+                }
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? line.length() : comma;
+                if (line.lastIndexOf('"', end - 1) >= i) {
+                    return null; // Quote inside an unquoted field
+                }
+                fields.append(line, i, end);
+                i = end;
+            }
+            if (i == line.length()) {
+                return fields.toString();
+            }
+            fields.append(',');
+            i++;
+        }
+    }
+
+    // One CSV field, quoted only when it has to be.
+    private static String csvField(String text) {
+        return text.indexOf(',') < 0 && text.indexOf('"') < 0 ? text : '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    // Requests, all at once, each base in the chunk that this run has not resolved yet.
+    private void resolveTables(String[] lines, int[] bases, int from, int to) {
+        int pending = 0;
+        for (int i = from; i < to; i++) {
+            int base = baseOrdinal(lines[i]);
+            if (base < 0) {
+                continue;
+            }
+            if (base >= resolved.length) {
+                int length = Math.max(base + 1, CurrencyCodes.count());
+                tablesByBase = Arrays.copyOf(tablesByBase, length);
+                resolved = Arrays.copyOf(resolved, length);
+            }
+            if (!resolved[base]) {
+                resolved[base] = true;
+                bases[pending++] = base;
+            }
+        }
+        List<CompletableFuture<RateTable>> requests = new ArrayList<>(pending);
+        for (int i = 0; i < pending; i++) {
+            requests.add(tables.apply(CurrencyCodes.code(bases[i])));
+        }
+        for (int i = 0; i < pending; i++) {
+            tablesByBase[bases[i]] = await(requests.get(i));
+        }
+    }
+
+    // Waits for a rate source; a failed one counts as "no rates" for the rows that need it.
+    private static <T> T await(CompletableFuture<T> source) {
+        try {
+            return source.join();
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("Failed to fetch exchange rates: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            return null;
+        }
+    }
+
+    private static int baseOrdinal(String row) {
+        String line = plain(row);
+        if (line == null) {
+            return -1;
+        }
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        return second < 0 ? -1 : codeOrdinal(line, first + 1, second);
+    }
+
+    // Ordinal of the code in line[from, to), ignoring surrounding blanks and case; -1 if invalid.
+    private static int codeOrdinal(String line, int from, int to) {
+        while (from < to && line.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && line.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (to - from != 3) {
+            return -1;
+        }
+        int key = CurrencyCodes.key(Character.toUpperCase(line.charAt(from)),
+                Character.toUpperCase(line.charAt(from + 1)), Character.toUpperCase(line.charAt(from + 2)));
+        return key < 0 ? -1 : CurrencyCodes.ordinalOfKey(key);
+    }
+
+    /**
+     * Converts one row, setting failures[i] if it cannot be converted.
+     * @return The output row, or null for a blank line.
+     */
+    private String convert(String row, CrossRateMatrix matrix, long lineNumber, boolean[] failures, int i) {
+        if (row.trim().isEmpty()) {
+            return null;
+        }
+        String line = plain(row);
+        if (line == null) {
+            failures[i] = true;
+            return csvField(row) + ",,,,," + csvField("Line " + lineNumber + ": Unbalanced quotes or a comma inside a quoted field.");
+        }
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0 || line.indexOf(',', second + 1) >= 0) {
+            failures[i] = true;
+            return csvField(row) + ",,,,," + csvField("Line " + lineNumber + ": Expected 3 fields (amount, base, target).");
+        }
+        String failure = null;
+        int base = codeOrdinal(line, first + 1, second);
+        int target = codeOrdinal(line, second + 1, line.length());
+        long amount = 0;
+        boolean tooManyDecimals = false;
+        if (base >= 0) {
+            try {
+                // Like the interactive converter, refuse amounts finer than the currency's minor units
+                amount = MoneyMath.parseMinor(line, 0, first, MoneyMath.minorDigits(base), RoundingMode.UNNECESSARY);
+            } catch (ArithmeticException e) {
+                tooManyDecimals = true;
+            }
+        }
+        double rate = Double.NaN;
+        long converted = 0;
+        if (base < 0 || target < 0) {
+            failure = "Currency codes must be three letters.";
+        } else if (tooManyDecimals) {
+            failure = MoneyMath.tooManyDecimals(CurrencyCodes.code(base), MoneyMath.minorDigits(base));
+        } else if (amount == Long.MIN_VALUE) {
+            failure = "Invalid amount.";
+        } else if (amount <= 0) {
+            failure = "Amount must be at least one minor unit of " + CurrencyCodes.code(base) + ".";
+        } else {
+            if (matrix != null) {
+                rate = matrix.rate(base, target);
+            } else {
+                RateTable table = base < tablesByBase.length ? tablesByBase[base] : null;
+                rate = table == null ? Double.NaN : table.rate(target);
+            }
+            if (Double.isNaN(rate)) {
+                failure = "No exchange rate for " + CurrencyCodes.code(base) + " to " + CurrencyCodes.code(target) + ".";
+            } else {
+                int baseDigits = MoneyMath.minorDigits(base);
+                int targetDigits = MoneyMath.minorDigits(target);
+                long scaledRate = MoneyMath.scaleRate(rate);
+                try {
+                    converted = MoneyMath.convert(amount, scaledRate, baseDigits, targetDigits, rounding);
+                    if (audit) {
+                        failure = audit(amount, scaledRate, baseDigits, targetDigits, converted);
+                    }
+                } catch (ArithmeticException e) {
+                    failure = "Cannot convert with " + rounding + " rounding.";
+                }
+            }
+        }
+        if (failure != null) {
+            failures[i] = true;
+            return row + ",,," + csvField("Line " + lineNumber + ": " + failure);
+        }
+        StringBuilder output = new StringBuilder(64);
+        output.append(line, 0, first).append(',')
+                .append(CurrencyCodes.code(base)).append(',')
+                .append(CurrencyCodes.code(target)).append(',')
+                .append(rate).append(',');
+        MoneyMath.appendMinor(output, converted, MoneyMath.minorDigits(target));
+        return output.append(',').toString();
+    }
+
+    /**
+     * Recomputes a conversion on the BigDecimal path.
+     * @return null, or a description of the mismatch.
+     */
+    private String audit(long amount, long scaledRate, int baseDigits, int targetDigits, long converted) {
+        BigDecimal exact = MoneyMath.convertExact(amount, scaledRate, baseDigits, targetDigits, rounding);
+        if (exact.unscaledValue().longValueExact() == converted) {
+            return null;
+        }
+        return "Audit mismatch: the exact result is " + exact.toPlainString() + ".";
+    }
+}
+
+/**
+ * Fetch layer for the rates API: every request has a timeout, failures the service may recover
+ * from are retried with jittered exponential backoff, and a circuit breaker stops calling a
+ * failing service for a while so callers fall back to cached rates at once. With a secondary
+ * endpoint, a request still unanswered after the hedge delay (or failed outright) is also sent
+ * there and the first good answer wins, which keeps tail latency bounded.
+ */
+class RateFetcher {
+    static final int RETRIES = Integer.getInteger("cc.fetch.retries", 2);
+    private static final long BACKOFF_MILLIS = Long.getLong("cc.fetch.backoffMillis", 200);
+    private static final long MAX_BACKOFF_MILLIS = Long.getLong("cc.fetch.maxBackoffMillis", 2_000);
+    static final int BREAKER_THRESHOLD = Integer.getInteger("cc.fetch.breakerThreshold", 5);
+    private static final long BREAKER_OPEN_MILLIS = Long.getLong("cc.fetch.breakerOpenMillis", 30_000);
+    static final long HEDGE_DELAY_MILLIS = Long.getLong("cc.fetch.hedgeDelayMillis", 300);
+
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "rate-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** A failed attempt; retryable when the service may answer a repeat (network, 5xx, 429). */
+    static final class FetchException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final boolean retryable;
+
+        FetchException(String message, boolean retryable, Throwable cause) {
+            super(message, cause);
+            this.retryable = retryable;
+        }
+    }
+
+    /**
+     * Opens after a run of consecutive failures, rejects calls until the open period ends, then
+     * lets a single trial call through: success closes it, failure opens it again. The trial also
+     * ends, without a verdict, if its fetch completes any other way (e.g. it is cancelled).
+     * Every trial gets its own ticket, so a request that was already running when the circuit
+     * opened cannot end the trial that replaced it.
+     */
+    private static final class CircuitBreaker {
+        private final long openNanos;
+        private int consecutiveFailures;
+        private long openUntil; // System.nanoTime() deadline while open
+        private boolean open;
+        private long trial; // Ticket of the running trial, 0 if none
+        private long lastTicket;
+
+        CircuitBreaker(long openMillis) {
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        }
+
+        /**
+         * @return The request's ticket: 0 while closed, a trial ticket while half-open, or -1 to
+         *         reject the request.
+         */
+        synchronized long allowRequest() {
+            if (!open) {
+                return 0;
+            }
+            if (System.nanoTime() - openUntil < 0 || trial != 0) {
+                return -1;
+            }
+            trial = ++lastTicket; // Half-open
+            return trial;
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            open = false;
+            trial = 0;
+        }
+
+        synchronized void onFailure(long ticket) {
+            onFinished(ticket);
+            if (open || ++consecutiveFailures >= BREAKER_THRESHOLD) {
+                open = true;
+                openUntil = System.nanoTime() + openNanos;
+            }
+        }
+
+        synchronized void onFinished(long ticket) {
+            if (ticket != 0 && ticket == trial) {
+                trial = 0;
+            }
+        }
+    }
+
+    private final HttpClient client;
+    private final String apiKey;
+    private final String primaryTemplate;
+    private final String secondaryTemplate; // null: no hedging
+    private final Duration requestTimeout;
+    private final CircuitBreaker breaker;
+
+    RateFetcher(HttpClient client, String apiKey, String primaryTemplate, String secondaryTemplate, Duration requestTimeout) {
+        this(client, apiKey, primaryTemplate, secondaryTemplate, requestTimeout, BREAKER_OPEN_MILLIS);
+    }
+
+    /**
+     * @param breakerOpenMillis How long the circuit stays open before a trial request.
+     */
+    RateFetcher(HttpClient client, String apiKey, String primaryTemplate, String secondaryTemplate, Duration requestTimeout,
+            long breakerOpenMillis) {
+        this.client = client;
+        this.apiKey = apiKey;
+        this.primaryTemplate = primaryTemplate;
+        this.secondaryTemplate = secondaryTemplate;
+        this.requestTimeout = requestTimeout;
+        this.breaker = new CircuitBreaker(breakerOpenMillis);
+    }
+
+    /**
+     * Fetches every rate for a base currency without blocking: retries are scheduled, not slept.
+     * @return A future of the rate table, which is null if fetching fails or the circuit is open.
+     */
+    CompletableFuture<RateTable> fetchAsync(String baseCurrency) {
+        long ticket = breaker.allowRequest();
+        if (ticket < 0) {
+            System.err.println("Rates API is failing; skipping the request and using cached rates.");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<RateTable> result = new CompletableFuture<>();
+        result.whenComplete((table, error) -> breaker.onFinished(ticket)); // Covers cancellation by the caller too
+        attempt(baseCurrency, 0, ticket, result);
+        return result;
+    }
+
+    private void attempt(String baseCurrency, int attempt, long ticket, CompletableFuture<RateTable> result) {
+        hedged(baseCurrency).whenComplete((table, error) -> {
+            if (error == null) {
+                breaker.onSuccess();
+                result.complete(table);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            FetchException failure = cause instanceof FetchException ? (FetchException) cause
+                    : new FetchException("Network error while connecting to API: " + cause.getMessage(), true, cause);
+            if (failure.retryable && attempt < RETRIES) {
+                CompletableFuture.delayedExecutor(backoffMillis(attempt), TimeUnit.MILLISECONDS)
+                        .execute(() -> attempt(baseCurrency, attempt + 1, ticket, result));
+                return;
+            }
+            if (failure.retryable) {
+                breaker.onFailure(ticket);
+            } else {
+                breaker.onSuccess(); // The service answered; the request itself was bad
+            }
+            System.err.println(failure.getMessage());
+            result.complete(null);
+        });
+    }
+
+    // Full jitter: a random delay up to the exponential bound, so clients do not retry in step.
+    private static long backoffMillis(int attempt) {
+        long bound = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    // One attempt, hedged against the secondary endpoint when there is one.
+    private CompletableFuture<RateTable> hedged(String baseCurrency) {
+        Race race = new Race(baseCurrency);
+        race.start(primaryTemplate, true);
+        ScheduledFuture<?> hedgeTimer = secondaryTemplate == null
+                ? null : HEDGE_TIMER.schedule(race::hedge, HEDGE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        return race.winner.whenComplete((table, error) -> {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+            for (CompletableFuture<HttpResponse<String>> exchange : race.exchanges) {
+                exchange.cancel(true); // Aborts the slower request's HTTP exchange
+            }
+        });
+    }
+
+    /**
+     * The requests of one attempt: the first to succeed wins, and the attempt fails only when
+     * every request started has failed.
+     */
+    private final class Race {
+        final String baseCurrency;
+        final CompletableFuture<RateTable> winner = new CompletableFuture<>();
+        final List<CompletableFuture<HttpResponse<String>>> exchanges = new CopyOnWriteArrayList<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicBoolean hedged = new AtomicBoolean(secondaryTemplate == null);
+        private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+        Race(String baseCurrency) {
+            this.baseCurrency = baseCurrency;
+        }
+
+        void start(String template, boolean primary) {
+            running.incrementAndGet();
+            CompletableFuture<HttpResponse<String>> exchange;
+            try {
+                exchange = send(template, baseCurrency);
+            } catch (RuntimeException e) {
+                // E.g. a malformed URL: fail this request like any other, so the race still ends
+                exchange = CompletableFuture.failedFuture(new FetchException("Could not send request to API: " + e.getMessage(), false, e));
+            }
+            exchanges.add(exchange);
+            exchange.handle(RateFetcher::toTable).whenComplete((table, error) -> {
+                if (error == null) {
+                    winner.complete(table);
+                    return;
+                }
+                firstError.compareAndSet(null, error instanceof CompletionException ? error.getCause() : error);
+                if (primary) {
+                    hedge(); // Fail over at once instead of waiting out the hedge delay
+                }
+                if (running.decrementAndGet() == 0) {
+                    winner.completeExceptionally(firstError.get());
+                }
+            });
+        }
+
+        void hedge() {
+            if (!winner.isDone() && hedged.compareAndSet(false, true)) {
+                start(secondaryTemplate, false);
+            }
+        }
+    }
+
+    // The exchange future itself, so cancelling it aborts the request.
+    private CompletableFuture<HttpResponse<String>> send(String template, String baseCurrency) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(String.format(template, apiKey, baseCurrency)))
+                .timeout(requestTimeout)
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static RateTable toTable(HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof FetchException) {
+                throw new CompletionException(cause);
+            }
+            throw new CompletionException(new FetchException(
+                    "Network error while connecting to API: " + cause.getMessage(), true, cause));
+        }
+        String jsonResponse = response.body();
+        int status = response.statusCode();
+        // Check if the API call was successful
+        if (status != 200 || jsonResponse.contains("\"result\":\"error\"")) {
+            String message = "API Request Failed. Status: " + status;
+            // For better debugging, include the full response body if it contains an error message.
+            if (jsonResponse.contains("error")) {
+                message += "\nAPI Error Details: " + jsonResponse;
+            }
+            throw new CompletionException(new FetchException(message, status >= 500 || status == 429, null));
+        }
+        try {
+            return RateTable.parse(jsonResponse);
+        } catch (IllegalArgumentException e) {
+            throw new CompletionException(new FetchException(
+                    "Failed to parse exchange rates from API response: " + e.getMessage(), false, e));
+        }
+    }
+}
+
+/**
+ * Local stand-in for the rates API, used by --bench and --stress. It listens on an ephemeral
+ * loopback port and answers "/ENDPOINT/KEY/latest/BASE" with a table of ~160 ISO currencies for
+ * BASE, all derived from one set of USD rates. Faults can be injected per endpoint name, so one
+ * stub can play both the primary and the secondary API.
+ */
+final class StubRatesServer implements AutoCloseable {
+    private static final int CURRENCIES = 160;
+    static final long SLOW_MILLIS = 2_000;
+
+    /** How the stub answers a request. */
+    enum Fault {
+        NONE,        // 200 with the rate table
+        UNAVAILABLE, // 503, which the fetcher retries
+        DROP,        // Close the connection without answering
+        SLOW         // The rate table, after SLOW_MILLIS
+    }
+
+    private static final class Injection {
+        final Fault fault;
+        final AtomicInteger remaining;
+
+        Injection(Fault fault, int times) {
+            this.fault = fault;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Injection> faults = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final List<String> codes = new ArrayList<>();
+    private final double[] usdRates; // 1 USD = usdRates[i] codes[i]
+
+    StubRatesServer() throws IOException {
+        List<String> iso = new ArrayList<>();
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            iso.add(currency.getCurrencyCode());
+        }
+        iso.sort(null);
+        iso.remove("USD");
+        codes.add("USD");
+        codes.addAll(iso.subList(0, Math.min(CURRENCIES - 1, iso.size())));
+        usdRates = new double[codes.size()];
+        for (int i = 0; i < usdRates.length; i++) {
+            usdRates[i] = i == 0 ? 1.0 : 0.05 + (i * 7919 % 1000) / 7.0; // Arbitrary but stable
+        }
+        handlers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "stub-rates");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Without this, Nagle's algorithm delays every keep-alive response by ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /**
+     * URL template for RateFetcher (the API key and base currency are filled in).
+     * @param endpoint The name faults and request counts are kept under.
+     */
+    String urlTemplate(String endpoint) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + endpoint + "/%s/latest/%s";
+    }
+
+    /**
+     * Answers the next 'times' requests to the endpoint with the fault (Integer.MAX_VALUE: until
+     * changed), then answers normally again.
+     */
+    void inject(String endpoint, Fault fault, int times) {
+        faults.put(endpoint, new Injection(fault, times));
+    }
+
+    /**
+     * Requests the endpoint has received so far.
+     */
+    int requests(String endpoint) {
+        AtomicInteger count = requests.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * The response body the stub serves for a base currency.
+     */
+    String body(String base) {
+        int baseIndex = codes.indexOf(base);
+        double baseRate = baseIndex < 0 ? 1.0 : usdRates[baseIndex];
+        StringBuilder json = new StringBuilder(codes.size() * 16 + 256);
+        json.append("{\"result\":\"success\",\"time_last_update_unix\":").append(System.currentTimeMillis() / 1000)
+                .append(",\"base_code\":\"").append(base).append("\",\"conversion_rates\":{");
+        for (int i = 0; i < codes.size(); i++) {
+            json.append(i == 0 ? "" : ",").append('"').append(codes.get(i)).append("\":").append(usdRates[i] / baseRate);
+        }
+        return json.append("}}").toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        int slash = path.indexOf('/', 1);
+        String endpoint = slash < 0 ? "" : path.substring(1, slash);
+        requests.computeIfAbsent(endpoint, name -> new AtomicInteger()).incrementAndGet();
+        Injection injection = faults.get(endpoint);
+        Fault fault = injection != null && injection.remaining.getAndDecrement() > 0 ? injection.fault : Fault.NONE;
+        if (fault == Fault.UNAVAILABLE) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        if (fault == Fault.DROP) {
+            exchange.close(); // Before any response: the connection is dropped
+            return;
+        }
+        if (fault == Fault.SLOW) {
+            try {
+                Thread.sleep(SLOW_MILLIS);
+            } catch (InterruptedException e) {
+                exchange.close(); // The stub is shutting down
+                return;
+            }
+        }
+        byte[] response = body(path.substring(path.lastIndexOf('/') + 1)).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+}
+
+/**
+ * Benchmarks (java CurrencyConverter --bench).
+ *
+ * Fetch latency: back-to-back rate fetches against StubRatesServer, with a new HttpClient per
+ * request (as fetchExchangeRate used to do) and with the shared pooled client. Each reports the
+ * mean and percentiles of FETCHES round trips, after WARMUP_FETCHES unmeasured ones.
+ *
+ * Parsing: RateTable.parse reading a whole stub response, against the indexOf/substring
+ * extraction fetchExchangeRate used to run for each rate, and a lookup in a parsed table.
+ *
+ * Money: one conversion on each representation, a double multiply (the old path), fixed point
+ * minor units through MoneyMath.convert, and the BigDecimal audit path, over MONEY_SAMPLES
+ * amounts and rates.
+ * Throughput cases report the best of ROUNDS rounds of ROUND_MILLIS, after warm-up rounds.
+ */
+final class ConverterBench {
+    private static final int FETCHES = 500;
+    private static final int WARMUP_FETCHES = 50;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final long ROUND_MILLIS = 200;
+    private static final int MONEY_SAMPLES = 1024; // Power of two
+
+    /** A measured operation; returns something derived from its work so it cannot be skipped. */
+    private interface Case {
+        long run();
+    }
+
+    private static long sink;
+
+    private ConverterBench() {
+    }
+
+    static void run(HttpClient sharedClient) throws Exception {
+        try (StubRatesServer stub = new StubRatesServer()) {
+            String url = String.format(stub.urlTemplate("primary"), "bench", "USD");
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).timeout(Duration.ofSeconds(10)).build();
+            fetchLatency("fetch, new client each", () -> HttpClient.newHttpClient(), request);
+            fetchLatency("fetch, shared client", () -> sharedClient, request);
+
+            String body = stub.body("USD");
+            RateTable table = RateTable.parse(body);
+            String[] targets = new String[table.count()];
+            int[] ordinals = new int[targets.length];
+            for (int ordinal = 0, n = 0; ordinal < table.length(); ordinal++) {
+                if (!Double.isNaN(table.rate(ordinal))) {
+                    ordinals[n] = ordinal;
+                    targets[n++] = CurrencyCodes.code(ordinal);
+                }
+            }
+            System.out.println("[Bench] Response: " + body.length() + " chars, " + targets.length + " rates");
+            double parses = throughput("parse whole table", () -> RateTable.parse(body).count());
+            System.out.printf("[Bench] %-26s %,14.1f MB/s%n", "parse whole table, chars", parses * body.length() / 1e6);
+            throughput("indexOf, one rate", () -> (long) indexOfRate(body, targets[targets.length / 2]));
+            throughput("indexOf, every rate", () -> {
+                long sum = 0;
+                for (String target : targets) {
+                    sum += (long) indexOfRate(body, target);
+                }
+                return sum;
+            });
+            int[] next = new int[1];
+            throughput("table lookup", () -> (long) table.rate(ordinals[next[0]++ % ordinals.length]));
+        }
+
+        long[] amounts = new long[MONEY_SAMPLES]; // Minor units with 2 digits
+        double[] doubleAmounts = new double[MONEY_SAMPLES];
+        double[] rates = new double[MONEY_SAMPLES];
+        long[] scaledRates = new long[MONEY_SAMPLES];
+        for (int i = 0; i < MONEY_SAMPLES; i++) {
+            amounts[i] = 1 + ThreadLocalRandom.current().nextLong(100_000_000L);
+            doubleAmounts[i] = amounts[i] / 100.0;
+            rates[i] = 0.01 + ThreadLocalRandom.current().nextDouble(200);
+            scaledRates[i] = MoneyMath.scaleRate(rates[i]);
+        }
+        int[] sample = new int[1];
+        throughput("convert, double", () -> {
+            int i = sample[0]++ & (MONEY_SAMPLES - 1);
+            return Math.round(doubleAmounts[i] * rates[i] * 100);
+        });
+        throughput("convert, long fixed point", () -> {
+            int i = sample[0]++ & (MONEY_SAMPLES - 1);
+            return MoneyMath.convert(amounts[i], scaledRates[i], 2, 2, RoundingMode.HALF_EVEN);
+        });
+        throughput("convert, BigDecimal", () -> {
+            int i = sample[0]++ & (MONEY_SAMPLES - 1);
+            return MoneyMath.convertExact(amounts[i], scaledRates[i], 2, 2, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+        });
+    }
+
+    // Runs the case in rounds of ROUND_MILLIS and prints its best rate.
+    private static double throughput(String name, Case measured) {
+        double best = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(ROUND_MILLIS);
+            long operations = 0;
+            long now;
+            do {
+                for (int i = 0; i < 64; i++) {
+                    sink += measured.run();
+                }
+                operations += 64;
+                now = System.nanoTime();
+            } while (now < deadline);
+            if (round >= 0) {
+                best = Math.max(best, operations * 1e9 / (now - start));
+            }
+        }
+        System.out.printf("[Bench] %-26s %,14.0f ops/s%n", name, best);
+        return best;
+    }
+
+    // The rate extraction fetchExchangeRate used before the table parser: search, cut, parse.
+    private static double indexOfRate(String jsonResponse, String targetCurrency) {
+        String searchString = "\"" + targetCurrency + "\":";
+        int startIndex = jsonResponse.indexOf(searchString);
+        if (startIndex == -1) {
+            return -1.0;
+        }
+        startIndex += searchString.length();
+        int endIndex = jsonResponse.indexOf(",", startIndex);
+        if (endIndex == -1) {
+            endIndex = jsonResponse.indexOf("}", startIndex);
+        }
+        return Double.parseDouble(jsonResponse.substring(startIndex, endIndex).trim());
+    }
+
+    // Times FETCHES sequential fetch-and-parse round trips, after WARMUP_FETCHES unmeasured ones.
+    private static void fetchLatency(String name, Supplier<HttpClient> clients, HttpRequest request) throws Exception {
+        long[] samples = new long[FETCHES];
+        for (int i = -WARMUP_FETCHES; i < FETCHES; i++) {
+            long start = System.nanoTime();
+            HttpResponse<String> response = clients.get().send(request, HttpResponse.BodyHandlers.ofString());
+            if (RateTable.parse(response.body()).count() == 0) {
+                throw new IllegalStateException("The stub served no rates");
+            }
+            if (i >= 0) {
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(samples);
+        long total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        System.out.printf("[Bench] %-26s mean %8.1f us  p50 %8.1f us  p99 %8.1f us%n", name,
+                total / 1e3 / FETCHES, samples[FETCHES / 2] / 1e3, samples[FETCHES * 99 / 100] / 1e3);
+    }
+}
+
+/**
+ * Fault checks for RateFetcher against StubRatesServer (java CurrencyConverter --stress).
+ *
+ * A fetch must retry 503s until one succeeds; after BREAKER_THRESHOLD failed fetches the circuit
+ * must open and fail fast without calling the API, let a single trial through once the open
+ * period ends, and close after a good trial. With a secondary endpoint, a slow primary must be
+ * answered after about the hedge delay, and a primary that drops the connection at once.
+ *
+ * Load: LOAD_CONVERSIONS conversions through AsyncConverter are started while their rate tables
+ * are still being fetched (the stub answers slowly). All of them must be pending at once, share
+ * one fetch per base, add no thread per conversion, and complete once the tables arrive.
+ */
+final class ConverterStress {
+    private static final long BREAKER_OPEN_MILLIS = 500; // Short, so the check does not wait out the default
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final int LOAD_CONVERSIONS = 10_000;
+    private static final String[] LOAD_BASES = {"USD", "EUR", "GBP", "JPY"};
+
+    private ConverterStress() {
+    }
+
+    static boolean run(HttpClient client) throws IOException, InterruptedException {
+        try (StubRatesServer stub = new StubRatesServer()) {
+            boolean passed = retries(client, stub);
+            passed &= breaker(client, stub);
+            passed &= hedging(client, stub);
+            passed &= asyncLoad(client, stub);
+            System.out.println(passed ? "[Stress] Passed." : "[Stress] FAILED.");
+            return passed;
+        }
+    }
+
+    private static boolean retries(HttpClient client, StubRatesServer stub) {
+        RateFetcher fetcher = fetcher(client, stub, "retry", null);
+        stub.inject("retry", StubRatesServer.Fault.UNAVAILABLE, RateFetcher.RETRIES);
+        RateTable table = fetcher.fetchAsync("USD").join();
+        return check("retry " + RateFetcher.RETRIES + " x 503, then 200",
+                table != null && stub.requests("retry") == RateFetcher.RETRIES + 1,
+                "requests " + stub.requests("retry") + ", expected " + (RateFetcher.RETRIES + 1));
+    }
+
+    private static boolean breaker(HttpClient client, StubRatesServer stub) throws InterruptedException {
+        RateFetcher fetcher = fetcher(client, stub, "breaker", null);
+        stub.inject("breaker", StubRatesServer.Fault.SLOW, 1);
+        CompletableFuture<RateTable> straggler = fetcher.fetchAsync("USD"); // Still running when the trial starts
+        Thread.sleep(100);
+        stub.inject("breaker", StubRatesServer.Fault.UNAVAILABLE, Integer.MAX_VALUE);
+        List<CompletableFuture<RateTable>> failing = new ArrayList<>();
+        for (int i = 0; i < RateFetcher.BREAKER_THRESHOLD; i++) {
+            failing.add(fetcher.fetchAsync("USD"));
+        }
+        boolean passed = true;
+        for (CompletableFuture<RateTable> fetch : failing) {
+            passed &= fetch.join() == null;
+        }
+        passed &= check("failing API gives no table", passed, "a fetch succeeded");
+
+        int before = stub.requests("breaker");
+        long start = System.nanoTime();
+        RateTable rejected = fetcher.fetchAsync("USD").join();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        passed &= check("open circuit fails fast", rejected == null && stub.requests("breaker") == before && elapsedMillis < 100,
+                elapsedMillis + " ms, " + (stub.requests("breaker") - before) + " request(s)");
+
+        stub.inject("breaker", StubRatesServer.Fault.SLOW, 1); // The trial is slow but good; later requests are fine
+        Thread.sleep(BREAKER_OPEN_MILLIS + 50);
+        CompletableFuture<RateTable> trial = fetcher.fetchAsync("USD");
+        Thread.sleep(100);
+        passed &= check("straggler outlives the open period", !straggler.isDone(), "timing: it finished early");
+        straggler.cancel(true); // A request from before the circuit opened must not end the trial
+        int during = stub.requests("breaker");
+        RateTable second = fetcher.fetchAsync("USD").join();
+        passed &= check("one trial at a time", second == null && stub.requests("breaker") == during,
+                (stub.requests("breaker") - during) + " request(s) while the trial ran");
+        passed &= check("good trial closes the circuit", trial.join() != null, "the trial failed");
+        passed &= check("closed circuit calls the API", fetcher.fetchAsync("USD").join() != null
+                && stub.requests("breaker") == during + 1, "no table or no request");
+        return passed;
+    }
+
+    private static boolean hedging(HttpClient client, StubRatesServer stub) {
+        RateFetcher slow = fetcher(client, stub, "slow", "secondary");
+        stub.inject("slow", StubRatesServer.Fault.SLOW, 1);
+        long start = System.nanoTime();
+        RateTable table = slow.fetchAsync("USD").join();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        boolean passed = check("hedge answers a slow primary", table != null && elapsedMillis < StubRatesServer.SLOW_MILLIS / 2,
+                elapsedMillis + " ms with a " + StubRatesServer.SLOW_MILLIS + " ms primary");
+
+        RateFetcher dropping = fetcher(client, stub, "drop", "failover");
+        stub.inject("drop", StubRatesServer.Fault.DROP, Integer.MAX_VALUE);
+        start = System.nanoTime();
+        table = dropping.fetchAsync("USD").join();
+        elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        passed &= check("fail over before the hedge delay", table != null && elapsedMillis < RateFetcher.HEDGE_DELAY_MILLIS,
+                elapsedMillis + " ms, hedge delay " + RateFetcher.HEDGE_DELAY_MILLIS + " ms");
+        return passed;
+    }
+
+    private static boolean asyncLoad(HttpClient client, StubRatesServer stub) throws IOException {
+        Path directory = Files.createTempDirectory("cc-stress");
+        Path snapshotPath = directory.resolve("rates.snapshot");
+        try {
+            RateFetcher fetcher = fetcher(client, stub, "load", null);
+            RateCache cache = new RateCache(fetcher::fetchAsync, 60_000, 60_000, new RateSnapshotFile(snapshotPath), null);
+            AsyncConverter converter = new AsyncConverter(cache, null, RoundingMode.HALF_EVEN, null);
+            stub.inject("load", StubRatesServer.Fault.SLOW, LOAD_BASES.length);
+
+            int threadsBefore = Thread.activeCount();
+            long start = System.nanoTime();
+            List<CompletableFuture<Conversion>> conversions = new ArrayList<>(LOAD_CONVERSIONS);
+            for (int i = 0; i < LOAD_CONVERSIONS; i++) {
+                conversions.add(converter.convert(LOAD_BASES[i % LOAD_BASES.length], "CHF", BigDecimal.valueOf(i + 1)));
+            }
+            long pending = conversions.stream().filter(conversion -> !conversion.isDone()).count();
+            int addedThreads = Thread.activeCount() - threadsBefore;
+            CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0])).join();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("[Stress] %,d conversions pending at once, %d thread(s) added, all done in %d ms%n",
+                    pending, addedThreads, elapsedMillis);
+            boolean passed = check("async conversions wait without threads",
+                    pending == LOAD_CONVERSIONS && addedThreads < LOAD_BASES.length * 4,
+                    pending + " pending, " + addedThreads + " thread(s) added");
+            passed &= check("one fetch per base", stub.requests("load") == LOAD_BASES.length,
+                    stub.requests("load") + " request(s) for " + LOAD_BASES.length + " bases");
+
+            start = System.nanoTime();
+            conversions.clear();
+            for (int i = 0; i < LOAD_CONVERSIONS; i++) {
+                conversions.add(converter.convert(LOAD_BASES[i % LOAD_BASES.length], "CHF", BigDecimal.valueOf(i + 1)));
+            }
+            CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0])).join();
+            System.out.printf("[Stress] Cached rates: %,.0f conversions/s%n",
+                    LOAD_CONVERSIONS * 1e9 / (System.nanoTime() - start));
+            return passed;
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static RateFetcher fetcher(HttpClient client, StubRatesServer stub, String primary, String secondary) {
+        return new RateFetcher(client, "stress", stub.urlTemplate(primary),
+                secondary == null ? null : stub.urlTemplate(secondary), REQUEST_TIMEOUT, BREAKER_OPEN_MILLIS);
+    }
+
+    private static boolean check(String name, boolean passed, String detail) {
+        System.out.println("[Stress] " + name + ": " + (passed ? "ok" : "FAILED (" + detail + ")"));
+        return passed;
+    }
+}
 
 /**
  * Real-Time Currency Converter Program.
@@ -12,6 +2535,20 @@ import java.util.Scanner;
  * (like ExchangeRate-API.com) and performs a currency conversion.
  *
  * NOTE: This requires Java 11 or later for the HttpClient.
+ *
+ * Batch mode converts a whole CSV ledger of "amount,base,target" rows:
+ *   java CurrencyConverter --batch [input.csv|-] [output.csv]
+ * Input defaults to stdin and output to stdout.
+ *
+ * Every fetched rate table is also kept in a local history. "--at TIME" (epoch millis, an
+ * ISO-8601 instant or a date) converts at the rates in force at that time instead of the
+ * latest ones, in either mode, and "--history BASE TARGET [FROM [TO]]" lists recorded rates.
+ *
+ * With -Dcc.rates.triangulate=true every pair is derived from the table of one reference
+ * currency (cc.rates.reference, USD by default), so only that table is fetched.
+ *
+ * "--bench" runs the benchmarks in ConverterBench and "--stress" the fault checks in
+ * ConverterStress, both against a local stub server.
  */
 public class CurrencyConverter {
 
@@ -193,8 +2730,58 @@ public class CurrencyConverter {
 
     // API URL template: fetches the latest rates based on the chosen base currency.
     // %s will be replaced by API_KEY and BASE_CURRENCY.
-    private static final String API_URL_TEMPLATE = 
-        "https://v6.exchangerate-api.com/v6/%s/latest/%s";
+    private static final String API_URL_TEMPLATE = System.getProperty("cc.api.urlTemplate",
+        "https://v6.exchangerate-api.com/v6/%s/latest/%s");
+
+    // Rate cache: tables younger than the TTL are fresh; older ones are served while being
+    // refreshed (or while the API is unreachable), until they pass the staleness limit.
+    private static final long RATE_TTL_MILLIS = Long.getLong("cc.rates.ttlMillis", TimeUnit.MINUTES.toMillis(10));
+    private static final long RATE_MAX_STALE_MILLIS = Long.getLong("cc.rates.maxStaleMillis", TimeUnit.HOURS.toMillis(1));
+    private static final String RATE_SNAPSHOT_FILE = System.getProperty("cc.rates.snapshotFile", "rates.snapshot");
+    private static final String RATE_HISTORY_FILE = System.getProperty("cc.rates.historyFile", "rates.history");
+
+    // HTTP client settings
+    private static final long CONNECT_TIMEOUT_MILLIS = Long.getLong("cc.http.connectTimeoutMillis", 5_000);
+    private static final long REQUEST_TIMEOUT_MILLIS = Long.getLong("cc.http.requestTimeoutMillis", 10_000);
+    private static final int HTTP_THREADS = Integer.getInteger("cc.http.threads", 4);
+
+    // One long-lived client, so every fetch reuses its pooled connections and TLS sessions
+    private static final HttpClient HTTP_CLIENT = newHttpClient();
+
+    // Optional second endpoint for hedged requests (same placeholders as API_URL_TEMPLATE)
+    private static final String SECONDARY_API_URL_TEMPLATE = System.getProperty("cc.api.secondaryUrlTemplate");
+
+    private static final RateFetcher FETCHER = new RateFetcher(HTTP_CLIENT, API_KEY, API_URL_TEMPLATE,
+            SECONDARY_API_URL_TEMPLATE, Duration.ofMillis(REQUEST_TIMEOUT_MILLIS));
+
+    private static final RateHistory HISTORY = new RateHistory(Paths.get(RATE_HISTORY_FILE));
+
+    private static final RateCache RATES =
+        new RateCache(CurrencyConverter::fetchRateTable, RATE_TTL_MILLIS, RATE_MAX_STALE_MILLIS,
+                new RateSnapshotFile(Paths.get(RATE_SNAPSHOT_FILE)), HISTORY);
+
+    // Triangulation: derive every pair from one reference table instead of fetching each base.
+    // Off by default, since derived rates can differ from the published ones in the last digits.
+    private static final boolean TRIANGULATE = Boolean.parseBoolean(System.getProperty("cc.rates.triangulate", "false"));
+    private static final String REFERENCE_CURRENCY = System.getProperty("cc.rates.reference", "USD");
+    private static final CrossRateEngine CROSS_RATES = new CrossRateEngine(RATES, REFERENCE_CURRENCY);
+
+    // Money: how converted amounts are rounded to the target's minor units, and whether every
+    // result is double-checked on the BigDecimal path
+    private static final RoundingMode ROUNDING = roundingMode();
+    private static final boolean AUDIT = Boolean.getBoolean("cc.money.audit");
+
+    // Async API: "async" completes conversions on the HTTP client's threads; "threads" hands each
+    // completion to a thread of its own (virtual threads on Java 21+). Neither blocks a thread
+    // while a rate is being fetched.
+    private static final boolean THREAD_PER_REQUEST =
+        System.getProperty("cc.async.mode", "async").equalsIgnoreCase("threads");
+    private static final int ASYNC_THREADS = Integer.getInteger("cc.async.threads", 64);
+    private static final AsyncConverter ASYNC = new AsyncConverter(RATES, TRIANGULATE ? CROSS_RATES : null, ROUNDING,
+            THREAD_PER_REQUEST ? newRequestExecutor() : null);
+
+    // Set by --at: convert at the historical rates in force at this time instead of the latest
+    private static long pointInTime = -1;
 
     // --- Main Logic ---
 
@@ -211,49 +2798,58 @@ public class CurrencyConverter {
             return;
         }
 
-        Scanner scanner = new Scanner(System.in);
-
-        try {
-            System.out.println("--- Real-Time Currency Converter ---");
-
-            // 1. Currency Selection: Base Currency
-            System.out.print("Enter the base currency code (e.g., USD, EUR, GBP): ");
-            String baseCurrency = scanner.next().toUpperCase();
-
-            // 2. Currency Selection: Target Currency
-            System.out.print("Enter the target currency code (e.g., JPY, CAD, AUD): ");
-            String targetCurrency = scanner.next().toUpperCase();
-
-            // 3. Amount Input
-            System.out.print("Enter the amount to convert: ");
-            double amountToConvert = scanner.nextDouble();
-
-            if (amountToConvert <= 0) {
-                System.out.println("Amount must be positive.");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.isEmpty() && arguments.get(0).equals("--bench")) {
+            try {
+                ConverterBench.run(HTTP_CLIENT);
+            } catch (Exception e) {
+                System.err.println("Benchmark failed: " + e);
+            }
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--stress")) {
+            boolean passed = false;
+            try {
+                passed = ConverterStress.run(HTTP_CLIENT);
+            } catch (IOException e) {
+                System.err.println("Stress check could not start the stub server: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(passed ? 0 : 1);
+        }
+        int at = arguments.indexOf("--at");
+        if (at >= 0) {
+            pointInTime = at + 1 < arguments.size() ? parseTime(arguments.get(at + 1)) : -1;
+            if (pointInTime < 0) {
+                System.err.println("--at needs a time: epoch milliseconds, an ISO-8601 instant or a date (yyyy-mm-dd).");
                 return;
             }
+            arguments.subList(at, at + 2).clear();
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--batch")) {
+            runBatch(arguments);
+            RATES.close();
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--history")) {
+            runHistory(arguments);
+            return;
+        }
 
-            System.out.println("\nFetching exchange rates...");
-
-            // 4. Fetch Currency Rates
-            double rate = fetchExchangeRate(baseCurrency, targetCurrency);
+        Scanner scanner = new Scanner(System.in);
 
-            if (rate == -1.0) {
-                System.out.println("Conversion failed. Check your currency codes and API key.");
-                return;
+        try {
+            System.out.println("--- Real-Time Currency Converter ---");
+            if (pointInTime >= 0) {
+                System.out.println("Using the exchange rates in force at " + Instant.ofEpochMilli(pointInTime));
             }
 
-            // 5. Currency Conversion
-            double convertedAmount = amountToConvert * rate;
-
-            // 6. Display Result
-            System.out.println("\n--- Conversion Result ---");
-            System.out.printf("Base Currency: %s\n", baseCurrency);
-            System.out.printf("Target Currency: %s\n", targetCurrency);
-            System.out.printf("Exchange Rate (1 %s = %.4f %s)\n", baseCurrency, rate, targetCurrency);
-            System.out.printf("%.2f %s converts to %.2f %s\n", 
-                                amountToConvert, baseCurrency, convertedAmount, targetCurrency);
-            System.out.println("-------------------------");
+            do {
+                convert(scanner);
+                // Rates stay cached, so further conversions from the same base skip the network
+                System.out.print("\nConvert another amount? (y/n): ");
+            } while (scanner.next().equalsIgnoreCase("y"));
 
 
         } catch (InputMismatchException e) {
@@ -263,72 +2859,270 @@ public class CurrencyConverter {
         } finally {
             // Ensure the scanner is closed regardless of outcome
             scanner.close();
+            RATES.close();
         }
     }
 
     /**
-     * Fetches the exchange rate for a target currency relative to a base currency.
-     * @param baseCurrency The base currency code (e.g., USD).
-     * @param targetCurrency The target currency code (e.g., EUR).
-     * @return The exchange rate (1 Base = X Target), or -1.0 if fetching fails.
+     * Converts an amount without blocking the caller, for services embedding the converter.
+     * Always uses the latest rates.
+     * @return A future of the conversion. It fails with IllegalArgumentException for bad input
+     *         and IllegalStateException when no rate is available.
      */
-    private static double fetchExchangeRate(String baseCurrency, String targetCurrency) {
-        String apiUrl = String.format(API_URL_TEMPLATE, API_KEY, baseCurrency);
-
-        // HttpClient setup (using the default client)
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .build();
+    static CompletableFuture<Conversion> convertAsync(String baseCurrency, String targetCurrency, BigDecimal amount) {
+        return ASYNC.convert(baseCurrency, targetCurrency, amount);
+    }
 
+    /**
+     * Virtual-thread-per-task executor where the runtime has one (Java 21+), otherwise a bounded
+     * pool of daemon platform threads. Either only runs completions, which never block.
+     */
+    private static ExecutorService newRequestExecutor() {
         try {
-            // Send the request and get the JSON response
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-            String jsonResponse = response.body();
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(ASYNC_THREADS, task -> {
+                Thread thread = new Thread(task, "conversion-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
 
-            // Check if the API call was successful
-            if (response.statusCode() != 200 || jsonResponse.contains("\"result\":\"error\"")) {
-                System.err.println("API Request Failed. Status: " + response.statusCode());
-                // For better debugging, display the full response body if it contains an error message.
-                if (jsonResponse.contains("error")) {
-                     System.err.println("API Error Details: " + jsonResponse);
-                }
-                return -1.0;
+    /**
+     * Runs batch mode: --batch [input.csv|-] [output.csv].
+     */
+    private static void runBatch(List<String> args) {
+        String input = args.size() > 1 ? args.get(1) : "-";
+        String output = args.size() > 2 ? args.get(2) : "-";
+        BatchConverter converter;
+        if (pointInTime < 0) {
+            converter = new BatchConverter(TRIANGULATE ? CROSS_RATES::matrixAsync : null, RATES::getAsync, ROUNDING, AUDIT);
+        } else if (!loadHistory()) {
+            return;
+        } else {
+            RateTable reference = HISTORY.tableAt(REFERENCE_CURRENCY, pointInTime);
+            CrossRateMatrix matrix = reference == null ? null : CrossRateMatrix.build(reference);
+            converter = new BatchConverter(TRIANGULATE ? () -> CompletableFuture.completedFuture(matrix) : null,
+                    base -> CompletableFuture.completedFuture(HISTORY.tableAt(base, pointInTime)), ROUNDING, AUDIT);
+        }
+        try (BufferedReader in = input.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = output.equals("-")
+                    ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                    : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            long failed = converter.run(in, out);
+            if (failed > 0) {
+                System.err.println(failed + " row(s) could not be converted; see the error column.");
             }
-            
-            // Simplified Manual JSON Parsing
-            // We look for the section: "TARGET_CURRENCY":RATE
-            String searchString = "\"" + targetCurrency + "\":";
-            int startIndex = jsonResponse.indexOf(searchString);
+        } catch (IOException e) {
+            System.err.println("Batch conversion failed: " + e.getMessage());
+        }
+    }
 
-            if (startIndex == -1) {
-                System.err.println("Error: Target currency code not found in API response.");
-                return -1.0;
-            }
+    /**
+     * Lists recorded rates: --history BASE TARGET [FROM [TO]].
+     */
+    private static void runHistory(List<String> args) {
+        if (args.size() < 3) {
+            System.err.println("Usage: --history BASE TARGET [FROM [TO]]");
+            return;
+        }
+        if (!loadHistory()) {
+            return;
+        }
+        String base = args.get(1).toUpperCase(Locale.ROOT);
+        String target = args.get(2).toUpperCase(Locale.ROOT);
+        long from = args.size() > 3 ? parseTime(args.get(3)) : 0;
+        long to = args.size() > 4 ? parseTime(args.get(4)) : Long.MAX_VALUE;
+        if (from < 0 || to < 0) {
+            System.err.println("Times must be epoch milliseconds, ISO-8601 instants or dates (yyyy-mm-dd).");
+            return;
+        }
+        System.out.println("time," + base + "/" + target);
+        int count = HISTORY.forEachInRange(base, target, from, to,
+                (time, rate) -> System.out.println(Instant.ofEpochMilli(time) + "," + rate));
+        if (count == 0) {
+            System.err.println("No " + base + " to " + target + " rates were recorded in that range.");
+        }
+    }
 
-            // Move past the search string to the rate value
-            startIndex += searchString.length();
-            
-            // Find the end of the rate value (where the comma or closing brace is)
-            int endIndex = jsonResponse.indexOf(",", startIndex);
-            if (endIndex == -1) {
-                // If it's the last rate in the list, look for the closing curly brace '}'
-                endIndex = jsonResponse.indexOf("}", startIndex);
+    /**
+     * Parses epoch milliseconds, an ISO-8601 instant or a date (start of the day, UTC).
+     * @return The time in epoch milliseconds, or -1 if the text is none of these.
+     */
+    private static long parseTime(String text) {
+        try {
+            if (text.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(text);
+            }
+            if (text.length() == 10) {
+                return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
             }
-            
-            // Extract the substring containing the rate value
-            String rateString = jsonResponse.substring(startIndex, endIndex).trim();
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            // Parse the string to a double
-            return Double.parseDouble(rateString);
+    private static RoundingMode roundingMode() {
+        String name = System.getProperty("cc.money.rounding", "HALF_EVEN");
+        try {
+            return RoundingMode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: Unknown rounding mode \"" + name + "\" in cc.money.rounding; using HALF_EVEN.");
+            return RoundingMode.HALF_EVEN;
+        }
+    }
+
+    // The history is only read when a command needs it, not at startup.
+    private static boolean loadHistory() {
+        try {
+            HISTORY.load();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error: The rate history is unavailable: " + e.getMessage());
+            return false;
+        }
+    }
 
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Network error while connecting to API: " + e.getMessage());
+    /**
+     * Looks up a rate in the history for the --at time.
+     * @return The exchange rate (1 Base = X Target), or -1.0 if none was recorded.
+     */
+    private static double historicalRate(String baseCurrency, String targetCurrency) {
+        if (!loadHistory()) {
             return -1.0;
-        } catch (NumberFormatException e) {
-            System.err.println("Failed to parse exchange rate value from API response.");
+        }
+        double rate = TRIANGULATE
+                ? HISTORY.rateAt(REFERENCE_CURRENCY, targetCurrency, pointInTime)
+                        / HISTORY.rateAt(REFERENCE_CURRENCY, baseCurrency, pointInTime)
+                : HISTORY.rateAt(baseCurrency, targetCurrency, pointInTime);
+        if (Double.isNaN(rate)) {
+            System.err.println("Error: No " + baseCurrency + " to " + targetCurrency
+                    + " rate was recorded at or before " + Instant.ofEpochMilli(pointInTime) + ".");
             return -1.0;
         }
+        return rate;
+    }
+
+    /**
+     * Runs one interactive conversion.
+     */
+    private static void convert(Scanner scanner) {
+        // 1. Currency Selection: Base Currency
+        System.out.print("Enter the base currency code (e.g., USD, EUR, GBP): ");
+        String baseCurrency = scanner.next().toUpperCase();
+
+        // 2. Currency Selection: Target Currency
+        System.out.print("Enter the target currency code (e.g., JPY, CAD, AUD): ");
+        String targetCurrency = scanner.next().toUpperCase();
+
+        // 3. Amount Input
+        System.out.print("Enter the amount to convert: ");
+        BigDecimal amountToConvert = scanner.nextBigDecimal();
+
+        if (amountToConvert.signum() <= 0) {
+            System.out.println("Amount must be positive.");
+            return;
+        }
+        int baseOrdinal = CurrencyCodes.ordinal(baseCurrency);
+        if (baseOrdinal >= 0 && !MoneyMath.fitsDigits(amountToConvert, MoneyMath.minorDigits(baseOrdinal))) {
+            System.out.println(MoneyMath.tooManyDecimals(baseCurrency, MoneyMath.minorDigits(baseOrdinal)));
+            return;
+        }
+
+        System.out.println("\nFetching exchange rates...");
+
+        // 4. Fetch Currency Rates
+        double rate = fetchExchangeRate(baseCurrency, targetCurrency);
+
+        if (rate == -1.0) {
+            System.out.println("Conversion failed. Check your currency codes and API key.");
+            return;
+        }
+
+        // 5. Currency Conversion (fixed point: minor units and a scaled rate)
+        int baseDigits = MoneyMath.minorDigits(CurrencyCodes.ordinal(baseCurrency));
+        int targetDigits = MoneyMath.minorDigits(CurrencyCodes.ordinal(targetCurrency));
+        long scaledRate = MoneyMath.scaleRate(rate);
+        long amountMinor;
+        long convertedMinor;
+        try {
+            // Exact: the amount's decimals were checked above
+            amountMinor = amountToConvert.setScale(baseDigits, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            System.out.println("Amount is too large to convert.");
+            return;
+        }
+        try {
+            convertedMinor = MoneyMath.convert(amountMinor, scaledRate, baseDigits, targetDigits, ROUNDING);
+        } catch (ArithmeticException e) {
+            System.out.println("Cannot convert with " + ROUNDING + " rounding: the result is too large or needs rounding.");
+            return;
+        }
+
+        // 6. Display Result
+        System.out.println("\n--- Conversion Result ---");
+        System.out.printf("Base Currency: %s\n", baseCurrency);
+        System.out.printf("Target Currency: %s\n", targetCurrency);
+        System.out.printf("Exchange Rate (1 %s = %s %s)\n", baseCurrency,
+                            BigDecimal.valueOf(scaledRate, MoneyMath.RATE_SCALE_DIGITS).stripTrailingZeros().toPlainString(),
+                            targetCurrency);
+        System.out.printf("%s %s converts to %s %s\n",
+                            MoneyMath.appendMinor(new StringBuilder(), amountMinor, baseDigits), baseCurrency,
+                            MoneyMath.appendMinor(new StringBuilder(), convertedMinor, targetDigits), targetCurrency);
+        if (AUDIT) {
+            BigDecimal exact = MoneyMath.convertExact(amountMinor, scaledRate, baseDigits, targetDigits, ROUNDING);
+            System.out.printf("Audit (BigDecimal, %s): %s %s%s\n", ROUNDING, exact.toPlainString(), targetCurrency,
+                                exact.unscaledValue().longValueExact() == convertedMinor ? "" : "  ** MISMATCH **");
+        }
+        System.out.println("-------------------------");
+    }
+
+    /**
+     * Fetches the exchange rate for a target currency relative to a base currency.
+     * @param baseCurrency The base currency code (e.g., USD).
+     * @param targetCurrency The target currency code (e.g., EUR).
+     * @return The exchange rate (1 Base = X Target), or -1.0 if fetching fails.
+     */
+    private static double fetchExchangeRate(String baseCurrency, String targetCurrency) {
+        if (pointInTime >= 0) {
+            return historicalRate(baseCurrency, targetCurrency);
+        }
+        if (TRIANGULATE) {
+            return CROSS_RATES.rate(baseCurrency, targetCurrency);
+        }
+        RateTable table = RATES.get(baseCurrency);
+        return table == null ? -1.0 : table.rate(targetCurrency);
+    }
+
+    /**
+     * Builds the shared client: HTTP/2 where the server offers it (falling back to HTTP/1.1 with
+     * keep-alive), a connect timeout, and a small bounded pool of daemon threads.
+     */
+    private static HttpClient newHttpClient() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HTTP_THREADS, HTTP_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "rate-http");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MILLIS))
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Fetches every rate for a base currency from the API.
+     * @param baseCurrency The base currency code (e.g., USD).
+     * @return A future of the rate table, which is null if fetching fails.
+     */
+    private static CompletableFuture<RateTable> fetchRateTable(String baseCurrency) {
+        return FETCHER.fetchAsync(baseCurrency);
     }
 }
\ No newline at end of file
@@ -1,12 +1,48 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.HashMap;
 import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * 1. Student Class: Represents an individual student.
- * Implements Serializable to allow saving/loading objects to/from a file.
+ * Implements Serializable so data files from older versions (students.ser) can still be migrated.
  */
 class Student implements Serializable {
     private static final long serialVersionUID = 1L; // For serialization version control
@@ -47,21 +83,3150 @@ class Student implements Serializable {
 
     @Override
     public String toString() {
-        return String.format("| %-20s | %-12d | %-10s |", name, rollNumber, grade);
+        StringBuilder sb = new StringBuilder(StudentTableRenderer.BORDER.length());
+        StudentTableRenderer.appendTableRow(sb, this);
+        return sb.toString();
     }
 }
 
 /**
- * 2. StudentManager Class: Manages the collection of students and handles file I/O.
+ * Primary index from roll number to a student's position in the roster list.
+ * Open-addressing hash table (linear probing) over primitive int arrays, so lookups,
+ * inserts and deletes are O(1) on average and never box an Integer.
+ */
+class RollNumberIndex {
+    private static final int FREE = -1; // Marks an empty slot in the values array
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public RollNumberIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the position stored for a roll number.
+     * @param rollNumber The roll number to look up.
+     * @return The list position, or -1 if the roll number is not indexed.
+     */
+    public int get(int rollNumber) {
+        int slot = hash(rollNumber) & mask;
+        while (values[slot] != FREE) {
+            if (keys[slot] == rollNumber) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return FREE;
+    }
+
+    public boolean contains(int rollNumber) {
+        return get(rollNumber) != FREE;
+    }
+
+    /**
+     * Maps a roll number to a list position, replacing any previous mapping.
+     * @param rollNumber The roll number (key).
+     * @param position The non-negative list position (value).
+     */
+    public void put(int rollNumber, int position) {
+        int slot = hash(rollNumber) & mask;
+        while (values[slot] != FREE) {
+            if (keys[slot] == rollNumber) {
+                values[slot] = position;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = rollNumber;
+        values[slot] = position;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes a roll number from the index using backward-shift deletion (no tombstones).
+     * @param rollNumber The roll number to remove.
+     * @return The position that was mapped, or -1 if the roll number was not indexed.
+     */
+    public int remove(int rollNumber) {
+        int slot = hash(rollNumber) & mask;
+        while (values[slot] != FREE) {
+            if (keys[slot] == rollNumber) {
+                int removed = values[slot];
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return FREE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Pulls later entries of the probe chain into the freed slot so lookups stay correct.
+    private void shiftBack(int gap) {
+        int next = (gap + 1) & mask;
+        while (values[next] != FREE) {
+            int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = FREE;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != FREE) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        java.util.Arrays.fill(values, FREE);
+        mask = capacity - 1;
+        resizeAt = capacity / 4 * 3; // 0.75 load factor
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity / 4 * 3 <= expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Fibonacci hashing spreads sequential roll numbers across the table.
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * Versioned, length-prefixed binary format for Student records.
+ *
+ * File layout: [magic:4][version:2][count:4] followed by 'count' records, each
+ * [recordLength:4][rollNumber:4][nameLength:2][name UTF-8][gradeLength:2][grade UTF-8],
+ * where recordLength counts the bytes after the length field. Files are read and written
+ * through a FileChannel with a single reusable ByteBuffer, with no class metadata or reflection.
+ */
+class StudentCodec {
+    static final int MAGIC = 0x534D5344; // "SMSD"
+    static final short VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 4;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    // Large enough for the biggest possible record, so a record never straddles a refill.
+    static final int BUFFER_BYTES = 256 * 1024;
+
+    /**
+     * Encodes one record at the buffer's position.
+     * @return false (buffer unchanged) if the record does not fit in the remaining space.
+     */
+    static boolean encode(ByteBuffer buffer, Student student) {
+        byte[] name = fieldBytes(student.getName());
+        byte[] grade = fieldBytes(student.getGrade());
+        int recordLength = 4 + 2 + name.length + 2 + grade.length;
+        if (buffer.remaining() < 4 + recordLength) {
+            return false;
+        }
+        buffer.putInt(recordLength);
+        buffer.putInt(student.getRollNumber());
+        buffer.putShort((short) name.length).put(name);
+        buffer.putShort((short) grade.length).put(grade);
+        return true;
+    }
+
+    /**
+     * Decodes one record at the buffer's position.
+     * @return The student, or null (buffer unchanged) if the buffer does not hold a complete record.
+     * @throws IOException if the record is malformed.
+     */
+    static Student decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int start = buffer.position();
+        int recordLength = buffer.getInt(start);
+        if (recordLength < 8 || recordLength > 8 + 2 * MAX_FIELD_BYTES) {
+            throw new IOException("Corrupt student record (length " + recordLength + ")");
+        }
+        if (buffer.remaining() < 4 + recordLength) {
+            return null;
+        }
+        buffer.position(start + 4);
+        int rollNumber = buffer.getInt();
+        String name = readField(buffer);
+        String grade = readField(buffer);
+        if (buffer.position() != start + 4 + recordLength) {
+            throw new IOException("Corrupt student record for roll number " + rollNumber);
+        }
+        return new Student(name, rollNumber, grade);
+    }
+
+    /**
+     * Writes a complete data file and forces it to disk.
+     */
+    static void writeFile(Path path, List<Student> students) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(MAGIC).putShort(VERSION).putInt(students.size());
+            for (Student student : students) {
+                if (!encode(buffer, student)) {
+                    drain(channel, buffer);
+                    encode(buffer, student);
+                }
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads a complete data file.
+     * @throws IOException if the file is not in this format, is from a newer version, or is truncated.
+     */
+    static List<Student> readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            while (buffer.position() < HEADER_BYTES && channel.read(buffer) >= 0) {
+                // Keep reading until the header is complete
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a student data file: " + path);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported student data file version " + version);
+            }
+            int count = buffer.getInt();
+            List<Student> students = new ArrayList<>(count);
+            while (students.size() < count) {
+                Student student = decode(buffer);
+                if (student != null) {
+                    students.add(student);
+                    continue;
+                }
+                buffer.compact();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    throw new IOException("Truncated student data file: read " + students.size() + " of " + count + " records");
+                }
+            }
+            return students;
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[] fieldBytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Field too long to store (" + bytes.length + " bytes)");
+        }
+        return bytes;
+    }
+
+    private static String readField(ByteBuffer buffer) throws IOException {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (length > buffer.remaining()) {
+            throw new IOException("Corrupt student record field");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * Append-only write-ahead log of roster mutations (journal persistence mode).
+ * Each add/edit/remove appends one small record instead of rewriting the whole roster,
+ * so the cost of a mutation does not depend on the roster size.
+ *
+ * Record layout: [op:1] followed by a StudentCodec record for puts, or by [rollNumber:4] for
+ * removes. A batch is [OP_BATCH][count:4] followed by 'count' put/remove records, and is
+ * replayed all-or-nothing. A torn record at the tail (crash mid-append) is discarded on replay.
+ *
+ * Concurrent writers use group commit instead of the append methods: enqueue() copies a record
+ * into a shared in-memory buffer under a short lock and returns its sequence number, and
+ * commit() writes it. One committer at a time becomes the leader and writes (and, under ALWAYS,
+ * forces) every record queued so far, while the others wait for it; records queued meanwhile go
+ * out in the next group. All file I/O runs under a separate write lock that enqueue() never
+ * takes, so queueing a record never waits for a write or an fsync. A group that fails is cut
+ * off the log and remembered by its sequence range until each of its committers has been told.
+ */
+class StudentJournal {
+    /** When appended records are forced to stable storage. */
+    enum FsyncPolicy {
+        ALWAYS, // fsync before every mutation returns
+        BATCH,  // group commit: one fsync per sync interval covers every record appended in it
+        NONE    // leave it to the operating system
+    }
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_BATCH = 3;
+
+    private final Path logPath;
+    private final Path rotatedPath; // Previous segment, kept until a snapshot covering it is written
+    private final FsyncPolicy policy;
+    private final ScheduledExecutorService syncer; // Only used by the BATCH policy
+    private final ReentrantLock writeLock = new ReentrantLock(); // Guards the channel; never taken with the monitor held
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 + StudentCodec.BUFFER_BYTES);
+    private FileChannel channel;
+    private boolean unsynced;
+    // Guarded by the monitor
+    private int recordsSinceRotate;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16); // Queued records not yet written
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);   // Null while a group is being written
+    private long enqueuedSeq;
+    private long groupedSeq; // Last sequence number handed to a writer
+    private long writtenSeq; // Every record up to here is in the log, except those of failedGroups
+    private final ArrayDeque<FailedGroup> failedGroups = new ArrayDeque<>();
+    private boolean leaderActive;
+
+    private static final class FailedGroup {
+        final long from;
+        final long through;
+        final IOException cause;
+        long unreported; // Committers not yet told
+
+        FailedGroup(long from, long through, IOException cause) {
+            this.from = from;
+            this.through = through;
+            this.cause = cause;
+            this.unreported = through - from + 1;
+        }
+    }
+
+    /**
+     * Opens the journal for appending. The log must already have been replayed, and is
+     * truncated to 'validLength' to drop any torn record left by a crash.
+     */
+    public StudentJournal(Path logPath, long validLength, FsyncPolicy policy, long syncIntervalMillis) throws IOException {
+        this.logPath = logPath;
+        this.rotatedPath = rotatedPathFor(logPath);
+        this.policy = policy;
+        open();
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+        if (policy == FsyncPolicy.BATCH) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "student-journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    public void appendPut(Student student) throws IOException {
+        writeLock.lock();
+        try {
+            writeQueued();
+            long start = channel.position();
+            buffer.clear();
+            encodePut(student);
+            drain(start);
+            committed(1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void appendRemove(int rollNumber) throws IOException {
+        writeLock.lock();
+        try {
+            writeQueued();
+            long start = channel.position();
+            buffer.clear();
+            buffer.put(OP_REMOVE).putInt(rollNumber);
+            drain(start);
+            committed(1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a batch of changes as one all-or-nothing record group, using as few writes as
+     * the buffer allows and at most one fsync. If writing fails, the partial group is cut off.
+     */
+    public void appendBatch(List<StudentChange> changes) throws IOException {
+        writeLock.lock();
+        try {
+            writeQueued();
+            long start = channel.position();
+            buffer.clear();
+            buffer.put(OP_BATCH).putInt(changes.size());
+            for (StudentChange change : changes) {
+                if (change.student == null) {
+                    if (buffer.remaining() < 5) {
+                        drain(start);
+                    }
+                    buffer.put(OP_REMOVE).putInt(change.rollNumber);
+                } else if (!encodePut(change.student)) {
+                    drain(start);
+                    encodePut(change.student);
+                }
+            }
+            drain(start);
+            committed(changes.size());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a put for group commit. Callers serialize changes to the same roll number, so
+     * each student's records are queued in the order they were applied.
+     * @return The sequence number to pass to commit().
+     */
+    public synchronized long enqueuePut(Student student) {
+        while (true) {
+            int start = pending.position();
+            if (pending.hasRemaining()) {
+                pending.put(OP_PUT);
+                if (StudentCodec.encode(pending, student)) {
+                    break;
+                }
+            }
+            pending.position(start);
+            growPending();
+        }
+        recordsSinceRotate++;
+        return ++enqueuedSeq;
+    }
+
+    /**
+     * Queues a remove for group commit.
+     * @return The sequence number to pass to commit().
+     */
+    public synchronized long enqueueRemove(int rollNumber) {
+        if (pending.remaining() < 5) {
+            growPending();
+        }
+        pending.put(OP_REMOVE).putInt(rollNumber);
+        recordsSinceRotate++;
+        return ++enqueuedSeq;
+    }
+
+    /**
+     * Returns once the queued record with this sequence number has been written (and forced,
+     * under ALWAYS), writing the current group itself if no other committer is. Every sequence
+     * number returned by enqueue must be committed exactly once.
+     * @throws IOException if the group holding the record could not be written.
+     */
+    public void commit(long seq) throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (awaitOutcome(seq)) {
+                    return;
+                }
+                leaderActive = true;
+            }
+            writeLock.lock();
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                // Recorded in failedGroups and reported by awaitOutcome on the next pass
+            } finally {
+                writeLock.unlock();
+                synchronized (this) {
+                    leaderActive = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Called with the monitor held: waits while another committer leads. Returns true once the
+    // record is written and false if nobody is writing it; throws if its group failed.
+    private boolean awaitOutcome(long seq) throws IOException {
+        boolean interrupted = false; // Keep waiting: the outcome of the group must be known
+        try {
+            while (true) {
+                for (Iterator<FailedGroup> groups = failedGroups.iterator(); groups.hasNext(); ) {
+                    FailedGroup failed = groups.next();
+                    if (seq >= failed.from && seq <= failed.through) {
+                        if (--failed.unreported == 0) {
+                            groups.remove();
+                        }
+                        throw new IOException("Could not write journal group", failed.cause);
+                    }
+                }
+                if (writtenSeq >= seq) {
+                    return true;
+                }
+                if (!leaderActive) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Called with the write lock held: writes every record queued so far, so records appended
+    // directly never overtake earlier queued ones. The monitor is only held to swap buffers.
+    private void writeQueued() throws IOException {
+        ByteBuffer group;
+        long from;
+        long through;
+        synchronized (this) {
+            if (pending.position() == 0) {
+                return;
+            }
+            group = pending;
+            pending = spare;
+            spare = null;
+            from = groupedSeq + 1;
+            through = enqueuedSeq;
+            groupedSeq = through;
+        }
+        IOException error = null;
+        long start = -1;
+        try {
+            start = channel.position();
+            group.flip();
+            while (group.hasRemaining()) {
+                channel.write(group);
+            }
+            if (policy == FsyncPolicy.ALWAYS) {
+                channel.force(false);
+            } else {
+                unsynced = true;
+            }
+        } catch (IOException e) {
+            error = e;
+            if (start >= 0) {
+                try {
+                    channel.truncate(start);
+                    channel.position(start);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+        }
+        synchronized (this) {
+            group.clear();
+            spare = group;
+            if (error == null) {
+                writtenSeq = through;
+            } else {
+                failedGroups.add(new FailedGroup(from, through, error));
+            }
+            notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void growPending() {
+        ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+
+    // Returns false (buffer unchanged) if the record does not fit in the remaining space.
+    private boolean encodePut(Student student) {
+        int start = buffer.position();
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        buffer.put(OP_PUT);
+        if (!StudentCodec.encode(buffer, student)) {
+            buffer.position(start);
+            return false;
+        }
+        return true;
+    }
+
+    // One write per buffer hands the records to the OS, so a process crash cannot lose them.
+    // On failure the log is cut back to 'start', where the interrupted append began.
+    private void drain(long start) throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void committed(int records) throws IOException {
+        synchronized (this) {
+            recordsSinceRotate += records;
+        }
+        if (policy == FsyncPolicy.ALWAYS) {
+            channel.force(false);
+        } else {
+            unsynced = true;
+        }
+    }
+
+    /**
+     * Forces every appended record to stable storage.
+     */
+    public void sync() throws IOException {
+        writeLock.lock();
+        try {
+            writeQueued();
+            if (unsynced) {
+                channel.force(false);
+                unsynced = false;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not sync journal: " + e.getMessage());
+        }
+    }
+
+    public synchronized int recordsSinceRotate() {
+        return recordsSinceRotate;
+    }
+
+    /**
+     * Seals the current segment and starts a new one, so a snapshot can replace the sealed part.
+     * @return false if an earlier sealed segment is still waiting for its snapshot; appends then
+     *         continue in the current segment.
+     */
+    public boolean rotate() throws IOException {
+        writeLock.lock();
+        try {
+            if (Files.exists(rotatedPath)) {
+                return false;
+            }
+            writeQueued();
+            channel.force(false);
+            channel.close();
+            Files.move(logPath, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+            open();
+            synchronized (this) {
+                recordsSinceRotate = 0;
+            }
+            unsynced = false;
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the sealed segment once a snapshot that includes it has been written.
+     */
+    public void deleteRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        writeLock.lock();
+        try {
+            writeQueued();
+            channel.force(false);
+            channel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private static void replay(StudentChange change, Consumer<Student> onPut, IntConsumer onRemove) {
+        if (change.student != null) {
+            onPut.accept(change.student);
+        } else {
+            onRemove.accept(change.rollNumber);
+        }
+    }
+
+    static Path rotatedPathFor(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".old");
+    }
+
+    /**
+     * Replays a journal segment in order.
+     * @param path The segment to read; a missing file replays nothing.
+     * @param onPut Called for every add/edit record.
+     * @param onRemove Called with the roll number of every remove record.
+     * @return The length of the valid prefix of the segment, in bytes.
+     */
+    static long replay(Path path, Consumer<Student> onPut, IntConsumer onRemove) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long valid = 0;  // End of the last complete record or batch
+        long offset = 0; // End of the last parsed record
+        List<StudentChange> batch = null; // Records of a batch that is still being read
+        int batchRemaining = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 + StudentCodec.BUFFER_BYTES);
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int start = buffer.position();
+                    byte op = buffer.get();
+                    StudentChange change;
+                    if (op == OP_PUT) {
+                        Student student;
+                        try {
+                            student = StudentCodec.decode(buffer);
+                        } catch (IOException e) {
+                            return valid; // Malformed record: garbage from a torn write
+                        }
+                        if (student == null) {
+                            buffer.position(start); // Incomplete: wait for more bytes, or a torn tail at EOF
+                            break;
+                        }
+                        change = StudentChange.put(student);
+                    } else if (op == OP_REMOVE || (op == OP_BATCH && batch == null)) {
+                        if (buffer.remaining() < 4) {
+                            buffer.position(start);
+                            break;
+                        }
+                        int value = buffer.getInt();
+                        if (op == OP_BATCH) {
+                            batch = new ArrayList<>();
+                            batchRemaining = value;
+                            change = null;
+                        } else {
+                            change = StudentChange.remove(value);
+                        }
+                    } else {
+                        return valid; // Unknown op: garbage from a torn write
+                    }
+                    offset += buffer.position() - start;
+                    if (change != null && batch != null) {
+                        batch.add(change);
+                        batchRemaining--;
+                    } else if (change != null) {
+                        replay(change, onPut, onRemove);
+                        valid = offset;
+                    }
+                    if (batch != null && batchRemaining <= 0) {
+                        for (StudentChange batched : batch) {
+                            replay(batched, onPut, onRemove);
+                        }
+                        batch = null;
+                        valid = offset;
+                    }
+                }
+                buffer.compact();
+            }
+        }
+        return valid;
+    }
+}
+
+/**
+ * Decides when a journaled store may compact: one compaction at a time, and none for
+ * COMPACT_RETRY_MILLIS after one failed, so a full disk is not hammered on every write.
+ */
+class CompactionGate {
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean failed; // Then wait COMPACT_RETRY_MILLIS after failedAt
+    private volatile long failedAt;
+
+    /**
+     * @return true if the caller may compact now; it must then call succeeded() or failed().
+     */
+    boolean tryStart() {
+        if (failed && System.nanoTime() - failedAt < TimeUnit.MILLISECONDS.toNanos(HeapStudentStore.COMPACT_RETRY_MILLIS)) {
+            return false;
+        }
+        return running.compareAndSet(false, true);
+    }
+
+    void succeeded() {
+        failed = false;
+        running.set(false);
+    }
+
+    void failed() {
+        failedAt = System.nanoTime();
+        failed = true;
+        running.set(false);
+    }
+}
+
+/**
+ * Storage backend behind StudentManager: the roster keyed by roll number, plus its persistence.
+ * Stored Student objects are treated as immutable; callers replace a student instead of mutating it.
+ * A backend that rolls back a single change it could not persist throws UncheckedIOException from
+ * put/insert/update/remove; the others report the error themselves and keep the change in memory.
+ */
+interface StudentStore {
+    Student get(int rollNumber);
+
+    boolean contains(int rollNumber);
+
+    /** Inserts the student, or replaces the one with the same roll number, and persists the change. */
+    void put(Student student);
+
+    /**
+     * Applies a batch of changes atomically and persists it once (one save or one journal commit).
+     * Nothing is applied if any precondition fails; if persisting fails, the in-memory changes are rolled back.
+     * @throws IllegalStateException if a change's precondition does not hold.
+     * @throws IllegalArgumentException if a student cannot be stored by this backend.
+     * @throws UncheckedIOException if the batch could not be persisted (and was rolled back).
+     */
+    void apply(List<StudentChange> changes);
+
+    /** Adds and persists a new student; returns false if the roll number is already stored. */
+    boolean insert(Student student);
+
+    /** Replaces and persists an existing student; returns false if the roll number is not stored. */
+    boolean update(Student student);
+
+    /** Removes and persists; returns false if no such roll number is stored. */
+    boolean remove(int rollNumber);
+
+    int size();
+
+    void forEach(Consumer<Student> action);
+
+    /**
+     * Feeds the students at positions [offset, offset + limit) of storage order to the action and
+     * stops there. Rows before 'offset' are skipped without being materialized where the backend allows.
+     * @return The number of students fed to the action.
+     */
+    int forEachInRange(int offset, int limit, Consumer<Student> action);
+
+    /** Forces every persisted change to disk. */
+    void sync();
+
+    /** Syncs and stops any background persistence threads. */
+    void close();
+}
+
+/**
+ * Background checkpoint thread for snapshot persistence.
+ * A change only marks the roster dirty. The thread waits a short coalescing delay, so a burst
+ * of changes produces a single snapshot, then writes it crash-safely (temp file, fsync, atomic
+ * rename). The interactive thread never waits on disk unless it explicitly calls flush().
+ */
+class StudentCheckpointer {
+    private static final long RETRY_MILLIS = 1000; // Delay before retrying a failed checkpoint
+
+    private final Supplier<List<Student>> roster; // Returns a consistent copy of the roster
+    private final long coalesceNanos;
+    private final Thread thread;
+    // Generations: each markDirty() requests a new one; a checkpoint covers the generation
+    // current when it copied the roster.
+    private long requested;
+    private long written;
+    private long failed = -1;
+    private long dirtySince = -1; // nanoTime of the first change not yet copied, or -1
+    private boolean flushRequested;
+    private boolean closed;
+
+    StudentCheckpointer(Supplier<List<Student>> roster, long coalesceMillis) {
+        this.roster = roster;
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+        this.thread = new Thread(this::run, "student-checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Records that the roster changed. Must be called after the change has been applied.
+     */
+    synchronized void markDirty() {
+        if (dirtySince < 0) {
+            dirtySince = System.nanoTime();
+        }
+        requested++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until every change marked so far has been written.
+     * @return false if the checkpoint covering them failed.
+     */
+    synchronized boolean flush() throws InterruptedException {
+        long target = requested;
+        while (written < target) {
+            if (failed >= target) {
+                return false;
+            }
+            flushRequested = true; // Skip the coalescing delay
+            notifyAll();
+            wait();
+        }
+        return true;
+    }
+
+    /**
+     * Writes any pending changes and stops the thread.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        thread.join(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long generation;
+                synchronized (this) {
+                    while (written == requested && !closed) {
+                        wait();
+                    }
+                    if (written == requested) {
+                        return; // Closed with nothing left to write
+                    }
+                    // Let a burst of changes settle; later changes do not extend the delay, and
+                    // only flush or close cut it short
+                    long deadline = (dirtySince >= 0 ? dirtySince : System.nanoTime()) + coalesceNanos;
+                    long remaining;
+                    while (!closed && !flushRequested && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    flushRequested = false;
+                    dirtySince = -1;
+                    generation = requested;
+                }
+                List<Student> snapshot = roster.get();
+                try {
+                    HeapStudentStore.writeSnapshot(snapshot);
+                    synchronized (this) {
+                        written = generation;
+                        notifyAll();
+                    }
+                } catch (IOException e) {
+                    System.out.println("[Persistence Error] Could not save data: " + e.getMessage());
+                    synchronized (this) {
+                        failed = generation;
+                        notifyAll();
+                        if (closed) {
+                            return;
+                        }
+                        wait(RETRY_MILLIS);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/**
+ * Heap-resident roster: every Student is loaded at startup into a list with a roll number index.
+ *
+ * Persistence mode is chosen with -Dsms.persistence: "snapshot" (default) marks the roster
+ * dirty after every change and lets a StudentCheckpointer rewrite the data file in the
+ * background, "journal" appends each change to a write-ahead log and compacts it into the
+ * data file in the background.
+ */
+class HeapStudentStore implements StudentStore {
+    private final List<Student> students;
+    private final Object rosterLock = new Object(); // Guards list changes against checkpoint copies
+    // Roll number -> position in 'students'. Stored Student objects are never mutated in
+    // place (edits replace them), so this index and background snapshots stay consistent.
+    private RollNumberIndex index;
+    static final String FILE_NAME = "students.dat"; // File for persistence (StudentCodec format)
+    private static final String LEGACY_FILE_NAME = "students.ser"; // Java-serialized file from older versions
+    static final String LOG_FILE_NAME = "students.log"; // Write-ahead log (journal mode)
+
+    // Journal mode settings
+    static final StudentJournal.FsyncPolicy FSYNC_POLICY =
+            StudentJournal.FsyncPolicy.valueOf(System.getProperty("sms.journal.fsync", "batch").toUpperCase());
+    static final long SYNC_INTERVAL_MILLIS = Long.getLong("sms.journal.syncMillis", 20);
+    static final int COMPACT_AFTER_RECORDS = Integer.getInteger("sms.journal.compactAfter", 10_000);
+    static final long COMPACT_RETRY_MILLIS = 1000; // Delay before retrying a failed compaction
+
+    // Snapshot mode setting: how long the checkpointer lets a burst of changes settle
+    private static final long CHECKPOINT_DELAY_MILLIS = Long.getLong("sms.checkpoint.delayMillis", 100);
+
+    private StudentCheckpointer checkpointer; // null in journal mode
+    private StudentJournal journal; // null in snapshot mode
+    private ExecutorService compactor;
+    private final CompactionGate compaction = new CompactionGate();
+
+    public HeapStudentStore(boolean journalMode) {
+        // 4. Load student data when the system is initialized
+        this.students = loadStudents();
+        this.index = new RollNumberIndex(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            index.put(students.get(i).getRollNumber(), i);
+        }
+        if (journalMode) {
+            openJournal();
+        }
+        if (journal == null) {
+            checkpointer = new StudentCheckpointer(this::copyRoster, CHECKPOINT_DELAY_MILLIS);
+        }
+    }
+
+    @Override
+    public Student get(int rollNumber) {
+        int position = index.get(rollNumber);
+        return position >= 0 ? students.get(position) : null;
+    }
+
+    @Override
+    public boolean contains(int rollNumber) {
+        return index.contains(rollNumber);
+    }
+
+    @Override
+    public void put(Student student) {
+        putInternal(student);
+        if (journal == null) {
+            saveStudents();
+            return;
+        }
+        try {
+            journal.appendPut(student);
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not journal change: " + e.getMessage());
+        }
+        maybeCompact();
+    }
+
+    /**
+     * In snapshot mode the batch is saved by the next checkpoint, which never sees half a batch;
+     * a failed checkpoint is reported and retried rather than rolled back.
+     */
+    @Override
+    public void apply(List<StudentChange> changes) {
+        List<Student> before = new ArrayList<>(changes.size()); // Undo log
+        synchronized (rosterLock) {
+            StudentChange.checkPreconditions(changes, this::contains);
+            for (StudentChange change : changes) {
+                before.add(get(change.rollNumber));
+                applyInternal(change);
+            }
+        }
+        if (journal == null) {
+            saveStudents();
+            return;
+        }
+        try {
+            journal.appendBatch(changes);
+        } catch (IOException e) {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                restore(changes.get(i).rollNumber, before.get(i));
+            }
+            throw new UncheckedIOException("Could not save the batch; it was rolled back", e);
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public boolean insert(Student student) {
+        if (contains(student.getRollNumber())) {
+            return false;
+        }
+        put(student);
+        return true;
+    }
+
+    @Override
+    public boolean update(Student student) {
+        if (!contains(student.getRollNumber())) {
+            return false;
+        }
+        put(student);
+        return true;
+    }
+
+    /**
+     * The last student in the list is moved into the freed position, so removal is O(1)
+     * (the display order of the remaining students may change).
+     */
+    @Override
+    public boolean remove(int rollNumber) {
+        if (!removeInternal(rollNumber)) {
+            return false;
+        }
+        if (journal == null) {
+            saveStudents();
+            return true;
+        }
+        try {
+            journal.appendRemove(rollNumber);
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not journal change: " + e.getMessage());
+        }
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return students.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Student> action) {
+        students.forEach(action);
+    }
+
+    @Override
+    public int forEachInRange(int offset, int limit, Consumer<Student> action) {
+        int end = (int) Math.min(students.size(), (long) offset + limit);
+        for (int i = offset; i < end; i++) {
+            action.accept(students.get(i));
+        }
+        return Math.max(0, end - offset);
+    }
+
+    // --- In-memory roster updates (list + index) ---
+
+    // Inserts a new student or replaces the one with the same roll number.
+    private void putInternal(Student student) {
+        synchronized (rosterLock) {
+            int position = index.get(student.getRollNumber());
+            if (position >= 0) {
+                students.set(position, student);
+            } else {
+                students.add(student);
+                index.put(student.getRollNumber(), students.size() - 1);
+            }
+        }
+    }
+
+    private void applyInternal(StudentChange change) {
+        if (change.student != null) {
+            putInternal(change.student);
+        } else {
+            removeInternal(change.rollNumber);
+        }
+    }
+
+    // Puts back the state a roll number had before a change (null: it was absent).
+    private void restore(int rollNumber, Student previous) {
+        if (previous != null) {
+            putInternal(previous);
+        } else {
+            removeInternal(rollNumber);
+        }
+    }
+
+    private boolean removeInternal(int rollNumber) {
+        synchronized (rosterLock) {
+            int position = index.remove(rollNumber);
+            if (position < 0) {
+                return false;
+            }
+            Student last = students.remove(students.size() - 1);
+            if (position < students.size()) {
+                students.set(position, last);
+                index.put(last.getRollNumber(), position);
+            }
+            return true;
+        }
+    }
+
+    // Stored students are immutable, so a copy of the list is a consistent snapshot.
+    private List<Student> copyRoster() {
+        synchronized (rosterLock) {
+            return new ArrayList<>(students);
+        }
+    }
+
+    // --- Persistence Methods (4) ---
+
+    /**
+     * Waits for the pending checkpoint (snapshot mode) or forces the log to disk (journal mode).
+     */
+    @Override
+    public void sync() {
+        try {
+            if (journal != null) {
+                journal.sync();
+            } else if (!checkpointer.flush()) {
+                System.out.println("[Persistence Error] The latest changes could not be saved.");
+            }
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not save data: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (journal == null) {
+            try {
+                checkpointer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not close journal: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Schedules a save of the current list of students to the binary data file.
+     */
+    private void saveStudents() {
+        checkpointer.markDirty();
+    }
+
+    /**
+     * Writes a snapshot crash-safely: the data goes to a temporary file that is fsynced and then
+     * atomically renamed over the data file, so a crash leaves either the old or the new roster.
+     */
+    static void writeSnapshot(List<Student> snapshot) throws IOException {
+        Path target = Paths.get(FILE_NAME).toAbsolutePath();
+        Path temp = target.resolveSibling(FILE_NAME + ".tmp");
+        StudentCodec.writeFile(temp, snapshot);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            directory.force(true); // Make the rename itself durable
+        } catch (IOException e) {
+            // Not every platform can open a directory; the rename is still atomic
+        }
+    }
+
+    /**
+     * Replays the journal on top of the loaded snapshot and opens it for appending.
+     */
+    private void openJournal() {
+        Path logPath = Paths.get(LOG_FILE_NAME);
+        try {
+            StudentJournal.replay(StudentJournal.rotatedPathFor(logPath), this::putInternal, this::removeInternal);
+            long validLength = StudentJournal.replay(logPath, this::putInternal, this::removeInternal);
+            journal = new StudentJournal(logPath, validLength, FSYNC_POLICY, SYNC_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not open journal, falling back to snapshot saves: " + e.getMessage());
+            journal = null;
+            return;
+        }
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "student-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Once enough records have accumulated, seals the log segment and writes a snapshot of the
+     * roster on the compactor thread. Stored students are immutable, so copying the list is enough.
+     */
+    private void maybeCompact() {
+        if (journal.recordsSinceRotate() < COMPACT_AFTER_RECORDS || !compaction.tryStart()) {
+            return;
+        }
+        boolean sealed;
+        try {
+            sealed = journal.rotate();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not rotate journal: " + e.getMessage());
+            compaction.failed();
+            return;
+        }
+        List<Student> snapshot = new ArrayList<>(students);
+        compactor.execute(() -> compact(snapshot, sealed));
+    }
+
+    /**
+     * Writes the snapshot and drops the sealed log segment it covers. If 'sealed' is false, an
+     * earlier compaction failed after sealing, so the log could not be rotated: the snapshot
+     * still covers both the old sealed segment and the current log (replaying puts and removes
+     * over it is harmless), so writing it retires the old segment and the next compaction
+     * rotates normally.
+     */
+    private void compact(List<Student> snapshot, boolean sealed) {
+        try {
+            writeSnapshot(snapshot);
+            journal.deleteRotated();
+            compaction.succeeded();
+            if (!sealed) {
+                System.out.println("[Info] Finished an earlier journal compaction that had failed.");
+            }
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Journal compaction failed, retrying later: " + e.getMessage());
+            compaction.failed();
+        }
+    }
+
+    /**
+     * Loads the list of students from the file.
+     * A legacy serialized file (students.ser) is migrated to the binary format on first start.
+     * @return The loaded list of students, or a new empty list if file doesn't exist or load fails.
+     */
+    static List<Student> loadStudents() {
+        Path dataPath = Paths.get(FILE_NAME);
+        if (!Files.exists(dataPath) && Files.exists(Paths.get(LEGACY_FILE_NAME))) {
+            migrateLegacyFile();
+        }
+        if (!Files.exists(dataPath)) {
+            System.out.println("[Info] Data file not found. Starting with an empty list.");
+            return new ArrayList<>();
+        }
+        try {
+            System.out.println("\n[Info] Loading student data from file...");
+            return StudentCodec.readFile(dataPath);
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Failed to load data. Starting with an empty list. Error: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * One-time conversion of the old Java-serialized roster into the binary data file.
+     * The old file is kept, renamed to students.ser.migrated.
+     */
+    @SuppressWarnings("unchecked") // Suppressing warning for unchecked cast from Object to List<Student>
+    private static void migrateLegacyFile() {
+        Path legacyPath = Paths.get(LEGACY_FILE_NAME);
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacyPath)))) {
+            List<Student> legacy = (List<Student>) ois.readObject();
+            writeSnapshot(legacy);
+            System.out.println("[Info] Migrated " + legacy.size() + " students from " + LEGACY_FILE_NAME + " to " + FILE_NAME + ".");
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("[Persistence Error] Could not migrate " + LEGACY_FILE_NAME + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(legacyPath, legacyPath.resolveSibling(LEGACY_FILE_NAME + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not rename " + LEGACY_FILE_NAME + ": " + e.getMessage());
+        }
+    }
+}
+
+
+/**
+ * Memory-mapped roster for very large rolls (-Dsms.persistence=mapped).
+ *
+ * Students live in fixed-size slots of a mapped data file (students.map), and a mapped
+ * open-addressing hash table (students.idx) maps roll numbers to slots. Opening the store
+ * only maps the files, so startup time does not depend on the roster size, and a Student
+ * object is materialized only when a lookup or listing actually reads its slot.
+ * Changes are written straight into the mapped pages; sync() forces them to disk.
+ */
+class MappedStudentStore implements StudentStore {
+    static final String DATA_FILE_NAME = "students.map";
+    static final String INDEX_FILE_NAME = "students.idx";
+    private static final int DATA_MAGIC = 0x534D534D; // "SMSM"
+    private static final int INDEX_MAGIC = 0x534D5349; // "SMSI"
+    private static final short VERSION = 1;
+
+    // Data file: a header block, then slot i at byte offset (i + 1) * SLOT_BYTES.
+    static final int SLOT_BYTES = 128;
+    static final int MAX_NAME_BYTES = 80;
+    static final int MAX_GRADE_BYTES = 32;
+    private static final int SEGMENT_BYTES = SLOT_BYTES << 18; // 32 MB per mapping; slots never straddle two
+    private static final int H_MAGIC = 0, H_VERSION = 4, H_SLOT_BYTES = 6, H_HIGH_WATER = 8, H_LIVE = 12, H_FREE_HEAD = 16;
+    // Slot layout. A free slot stores the next free slot in its roll number field.
+    private static final int S_LIVE = 0, S_ROLL = 1, S_NAME_LEN = 5, S_NAME = 6;
+    private static final int S_GRADE_LEN = S_NAME + MAX_NAME_BYTES, S_GRADE = S_GRADE_LEN + 1;
+
+    // Index file: [magic:4][capacity:4][size:4][unused:4], then 8-byte entries [rollNumber:4][slot + 1:4].
+    private static final int INDEX_HEADER_BYTES = 16;
+    private static final int I_CAPACITY = 4, I_SIZE = 8;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final FileChannel dataChannel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private MappedByteBuffer header;
+    private MappedByteBuffer index;
+    private int indexMask;
+
+    public MappedStudentStore(Path dataPath, Path indexPath) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        boolean created = !Files.exists(dataPath);
+        this.dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = segment(0);
+        if (created) {
+            header.putInt(H_MAGIC, DATA_MAGIC);
+            header.putShort(H_VERSION, VERSION);
+            header.putShort(H_SLOT_BYTES, (short) SLOT_BYTES);
+            header.putInt(H_HIGH_WATER, 0);
+            header.putInt(H_LIVE, 0);
+            header.putInt(H_FREE_HEAD, -1);
+        } else if (header.getInt(H_MAGIC) != DATA_MAGIC || header.getShort(H_VERSION) != VERSION
+                || header.getShort(H_SLOT_BYTES) != SLOT_BYTES) {
+            throw new IOException("Not a mapped student data file: " + dataPath);
+        }
+        if (!openIndex()) {
+            rebuildIndex(Math.max(INITIAL_INDEX_CAPACITY, capacityFor(size())));
+        }
+    }
+
+    /**
+     * Opens the mapped store, importing the heap data file (students.dat) the first time.
+     */
+    static MappedStudentStore open() throws IOException {
+        Path dataPath = Paths.get(DATA_FILE_NAME);
+        Path indexPath = Paths.get(INDEX_FILE_NAME);
+        if (!Files.exists(dataPath) && Files.exists(Paths.get(HeapStudentStore.FILE_NAME))) {
+            importHeapFile(dataPath, indexPath);
+        }
+        return new MappedStudentStore(dataPath, indexPath);
+    }
+
+    /**
+     * Checks that every student fits a slot, builds the mapped files under temporary names and
+     * renames them into place only once all are written. A failed import leaves no students.map
+     * behind, so it is retried on the next start.
+     */
+    private static void importHeapFile(Path dataPath, Path indexPath) throws IOException {
+        List<Student> students = StudentCodec.readFile(Paths.get(HeapStudentStore.FILE_NAME));
+        for (Student student : students) {
+            try {
+                checkFits(student.getName().getBytes(StandardCharsets.UTF_8), student.getGrade().getBytes(StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Cannot import student " + student.getRollNumber() + " from "
+                        + HeapStudentStore.FILE_NAME + ": " + e.getMessage());
+            }
+        }
+        Path tempData = dataPath.resolveSibling(dataPath.getFileName() + ".import");
+        Path tempIndex = indexPath.resolveSibling(indexPath.getFileName() + ".import");
+        Files.deleteIfExists(tempData);
+        Files.deleteIfExists(tempIndex);
+        try {
+            MappedStudentStore store = new MappedStudentStore(tempData, tempIndex);
+            try {
+                students.forEach(store::put);
+            } finally {
+                store.close();
+            }
+            Files.move(tempIndex, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tempData, dataPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(tempData);
+            Files.deleteIfExists(tempIndex);
+            throw e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e;
+        }
+        System.out.println("[Info] Imported " + students.size() + " students from " + HeapStudentStore.FILE_NAME + " into " + DATA_FILE_NAME + ".");
+    }
+
+    @Override
+    public Student get(int rollNumber) {
+        int slot = findSlot(rollNumber);
+        return slot >= 0 ? readSlot(slot) : null;
+    }
+
+    @Override
+    public boolean contains(int rollNumber) {
+        return findSlot(rollNumber) >= 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the name or grade does not fit in a fixed-size slot.
+     */
+    @Override
+    public void put(Student student) {
+        byte[] name = student.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] grade = student.getGrade().getBytes(StandardCharsets.UTF_8);
+        checkFits(name, grade);
+        int slot = findSlot(student.getRollNumber());
+        boolean inserted = slot < 0;
+        if (inserted) {
+            slot = allocateSlot();
+        }
+        // Write the slot before publishing it in the index
+        MappedByteBuffer buffer = segment(slotOffset(slot));
+        int offset = (int) (slotOffset(slot) % SEGMENT_BYTES);
+        buffer.putInt(offset + S_ROLL, student.getRollNumber());
+        buffer.put(offset + S_NAME_LEN, (byte) name.length);
+        buffer.put(offset + S_NAME, name);
+        buffer.put(offset + S_GRADE_LEN, (byte) grade.length);
+        buffer.put(offset + S_GRADE, grade);
+        buffer.put(offset + S_LIVE, (byte) 1);
+        if (inserted) {
+            indexInsert(student.getRollNumber(), slot);
+            header.putInt(H_LIVE, header.getInt(H_LIVE) + 1);
+        }
+    }
+
+    /**
+     * Checks every change up front, writes the slots, then forces the mapped files once.
+     * A failure part-way (e.g. the disk is full) undoes the changes already written; the batch
+     * is not atomic across an operating system crash.
+     */
+    @Override
+    public void apply(List<StudentChange> changes) {
+        StudentChange.checkPreconditions(changes, this::contains);
+        for (StudentChange change : changes) {
+            if (change.student != null) {
+                checkFits(change.student.getName().getBytes(StandardCharsets.UTF_8),
+                        change.student.getGrade().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        List<Student> before = new ArrayList<>(changes.size()); // Undo log
+        try {
+            for (StudentChange change : changes) {
+                before.add(get(change.rollNumber));
+                if (change.student != null) {
+                    put(change.student);
+                } else {
+                    remove(change.rollNumber);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            for (int i = before.size() - 1; i >= 0; i--) {
+                if (before.get(i) != null) {
+                    put(before.get(i));
+                } else {
+                    remove(changes.get(i).rollNumber);
+                }
+            }
+            throw e;
+        }
+        sync();
+    }
+
+    @Override
+    public boolean insert(Student student) {
+        if (contains(student.getRollNumber())) {
+            return false;
+        }
+        put(student);
+        return true;
+    }
+
+    @Override
+    public boolean update(Student student) {
+        if (!contains(student.getRollNumber())) {
+            return false;
+        }
+        put(student);
+        return true;
+    }
+
+    @Override
+    public boolean remove(int rollNumber) {
+        int entry = findEntry(rollNumber);
+        if (entry < 0) {
+            return false;
+        }
+        int slot = index.getInt(entryOffset(entry) + 4) - 1;
+        indexDelete(entry);
+        MappedByteBuffer buffer = segment(slotOffset(slot));
+        int offset = (int) (slotOffset(slot) % SEGMENT_BYTES);
+        buffer.put(offset + S_LIVE, (byte) 0);
+        buffer.putInt(offset + S_ROLL, header.getInt(H_FREE_HEAD));
+        header.putInt(H_FREE_HEAD, slot);
+        header.putInt(H_LIVE, header.getInt(H_LIVE) - 1);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return header.getInt(H_LIVE);
+    }
+
+    /**
+     * Walks the slots in file order, materializing one Student at a time.
+     */
+    @Override
+    public void forEach(Consumer<Student> action) {
+        int highWater = header.getInt(H_HIGH_WATER);
+        for (int slot = 0; slot < highWater; slot++) {
+            MappedByteBuffer buffer = segment(slotOffset(slot));
+            if (buffer.get((int) (slotOffset(slot) % SEGMENT_BYTES) + S_LIVE) != 0) {
+                action.accept(readSlot(slot));
+            }
+        }
+    }
+
+    /**
+     * Walks the slots in file order, counting skipped rows from their live flag alone, so only
+     * the rows in the range are materialized.
+     */
+    @Override
+    public int forEachInRange(int offset, int limit, Consumer<Student> action) {
+        int highWater = header.getInt(H_HIGH_WATER);
+        int seen = 0;
+        int emitted = 0;
+        for (int slot = 0; slot < highWater && emitted < limit; slot++) {
+            MappedByteBuffer buffer = segment(slotOffset(slot));
+            if (buffer.get((int) (slotOffset(slot) % SEGMENT_BYTES) + S_LIVE) != 0 && seen++ >= offset) {
+                action.accept(readSlot(slot));
+                emitted++;
+            }
+        }
+        return emitted;
+    }
+
+    @Override
+    public void sync() {
+        segments.forEach(MappedByteBuffer::force);
+        index.force();
+    }
+
+    @Override
+    public void close() {
+        sync();
+        try {
+            dataChannel.close();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not close " + dataPath + ": " + e.getMessage());
+        }
+    }
+
+    // --- Slots ---
+
+    private static void checkFits(byte[] name, byte[] grade) {
+        if (name.length > MAX_NAME_BYTES || grade.length > MAX_GRADE_BYTES) {
+            throw new IllegalArgumentException("Name (max " + MAX_NAME_BYTES + " bytes) or grade (max "
+                    + MAX_GRADE_BYTES + " bytes) is too long for mapped storage.");
+        }
+    }
+
+    private Student readSlot(int slot) {
+        MappedByteBuffer buffer = segment(slotOffset(slot));
+        int offset = (int) (slotOffset(slot) % SEGMENT_BYTES);
+        byte[] name = new byte[Byte.toUnsignedInt(buffer.get(offset + S_NAME_LEN))];
+        buffer.get(offset + S_NAME, name);
+        byte[] grade = new byte[Byte.toUnsignedInt(buffer.get(offset + S_GRADE_LEN))];
+        buffer.get(offset + S_GRADE, grade);
+        return new Student(new String(name, StandardCharsets.UTF_8), buffer.getInt(offset + S_ROLL),
+                new String(grade, StandardCharsets.UTF_8));
+    }
+
+    // Reuses a freed slot if there is one, otherwise extends the file.
+    private int allocateSlot() {
+        int free = header.getInt(H_FREE_HEAD);
+        if (free >= 0) {
+            MappedByteBuffer buffer = segment(slotOffset(free));
+            header.putInt(H_FREE_HEAD, buffer.getInt((int) (slotOffset(free) % SEGMENT_BYTES) + S_ROLL));
+            return free;
+        }
+        int slot = header.getInt(H_HIGH_WATER);
+        header.putInt(H_HIGH_WATER, slot + 1);
+        return slot;
+    }
+
+    private static long slotOffset(int slot) {
+        return (long) (slot + 1) * SLOT_BYTES;
+    }
+
+    // Maps segments on demand; mapping past the end of the file grows it.
+    private MappedByteBuffer segment(long fileOffset) {
+        int segment = (int) (fileOffset / SEGMENT_BYTES);
+        try {
+            while (segments.size() <= segment) {
+                segments.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_BYTES, SEGMENT_BYTES));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + dataPath, e);
+        }
+        return segments.get(segment);
+    }
+
+    // --- Roll number index (linear probing, backward-shift deletion) ---
+
+    private int findSlot(int rollNumber) {
+        int entry = findEntry(rollNumber);
+        return entry >= 0 ? index.getInt(entryOffset(entry) + 4) - 1 : -1;
+    }
+
+    private int findEntry(int rollNumber) {
+        int entry = hash(rollNumber) & indexMask;
+        while (index.getInt(entryOffset(entry) + 4) != 0) {
+            if (index.getInt(entryOffset(entry)) == rollNumber) {
+                return entry;
+            }
+            entry = (entry + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    private void indexInsert(int rollNumber, int slot) {
+        int size = index.getInt(I_SIZE) + 1;
+        if (size > (indexMask + 1) / 4 * 3) {
+            try {
+                rebuildIndex((indexMask + 1) << 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not grow " + indexPath, e);
+            }
+        }
+        int entry = hash(rollNumber) & indexMask;
+        while (index.getInt(entryOffset(entry) + 4) != 0) {
+            entry = (entry + 1) & indexMask;
+        }
+        index.putInt(entryOffset(entry), rollNumber);
+        index.putInt(entryOffset(entry) + 4, slot + 1);
+        index.putInt(I_SIZE, index.getInt(I_SIZE) + 1);
+    }
+
+    private void indexDelete(int gap) {
+        int next = (gap + 1) & indexMask;
+        while (index.getInt(entryOffset(next) + 4) != 0) {
+            int ideal = hash(index.getInt(entryOffset(next))) & indexMask;
+            if (((next - ideal) & indexMask) >= ((next - gap) & indexMask)) {
+                index.putLong(entryOffset(gap), index.getLong(entryOffset(next)));
+                gap = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+        index.putLong(entryOffset(gap), 0L);
+        index.putInt(I_SIZE, index.getInt(I_SIZE) - 1);
+    }
+
+    private static int entryOffset(int entry) {
+        return INDEX_HEADER_BYTES + entry * 8;
+    }
+
+    private boolean openIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < INDEX_HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int capacity = mapped.getInt(I_CAPACITY);
+            if (mapped.getInt(0) != INDEX_MAGIC || Integer.bitCount(capacity) != 1
+                    || channel.size() != entryOffset(capacity) || mapped.getInt(I_SIZE) != size()) {
+                return false; // Stale or damaged: rebuilt from the data file
+            }
+            index = mapped;
+            indexMask = capacity - 1;
+            return true;
+        }
+    }
+
+    /**
+     * Writes a fresh index of the given capacity from the live slots (or from the current
+     * index when growing) and swaps it in with an atomic rename.
+     */
+    private void rebuildIndex(int capacity) throws IOException {
+        Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        MappedByteBuffer rebuilt;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            rebuilt = channel.map(FileChannel.MapMode.READ_WRITE, 0, entryOffset(capacity));
+        }
+        rebuilt.putInt(0, INDEX_MAGIC);
+        rebuilt.putInt(I_CAPACITY, capacity);
+        MappedByteBuffer old = index;
+        int oldCapacity = indexMask + 1;
+        index = rebuilt;
+        indexMask = capacity - 1;
+        if (old != null) {
+            for (int entry = 0; entry < oldCapacity; entry++) {
+                int slot = old.getInt(entryOffset(entry) + 4);
+                if (slot != 0) {
+                    indexInsert(old.getInt(entryOffset(entry)), slot - 1);
+                }
+            }
+        } else {
+            int highWater = header.getInt(H_HIGH_WATER);
+            for (int slot = 0; slot < highWater; slot++) {
+                MappedByteBuffer buffer = segment(slotOffset(slot));
+                int offset = (int) (slotOffset(slot) % SEGMENT_BYTES);
+                if (buffer.get(offset + S_LIVE) != 0) {
+                    indexInsert(buffer.getInt(offset + S_ROLL), slot);
+                }
+            }
+        }
+        rebuilt.force();
+        Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity / 4 * 3 <= expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * Thread-safe roster for several front-ends sharing one StudentManager (-Dsms.persistence=concurrent).
+ *
+ * Students are kept in a ConcurrentHashMap keyed by roll number as private, never-mutated
+ * copies: reads are lock-free. Writers lock one of LOCK_STRIPES stripes by roll number, so they
+ * only contend when their roll numbers share a stripe; under that lock a change is applied to
+ * the map, queued in the journal, and committed, so the log order matches the in-memory order
+ * for each student. Nothing is queued from inside the map's own per-key updates, so no map bin
+ * is ever locked while the journal is busy. The commit goes through the journal's group commit:
+ * writers on different stripes share one write (and one fsync under ALWAYS) instead of queueing
+ * behind each other. If the journal cannot write the change, it is rolled back in memory and
+ * reported as an UncheckedIOException; readers may have seen it in the meantime.
+ * A read/write lock lets the compactor seal the log and copy the roster without losing a write
+ * that is half-way between the two.
+ */
+class ConcurrentStudentStore implements StudentStore {
+    private static final int LOCK_STRIPES = 64; // Power of two
+
+    private final ConcurrentHashMap<Integer, Student> students;
+    private final Object[] rollLocks = new Object[LOCK_STRIPES]; // Serializes the changes to each roll number
+    private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock(); // Writers share; rotation is exclusive
+    private final StudentJournal journal;
+    private final ExecutorService compactor;
+    private final CompactionGate compaction = new CompactionGate();
+
+    public ConcurrentStudentStore() throws IOException {
+        List<Student> loaded = HeapStudentStore.loadStudents();
+        this.students = new ConcurrentHashMap<>(Math.max(16, loaded.size() * 4 / 3 + 1));
+        loaded.forEach(this::replayPut);
+        Path logPath = Paths.get(HeapStudentStore.LOG_FILE_NAME);
+        StudentJournal.replay(StudentJournal.rotatedPathFor(logPath), this::replayPut, students::remove);
+        long validLength = StudentJournal.replay(logPath, this::replayPut, students::remove);
+        this.journal = new StudentJournal(logPath, validLength, HeapStudentStore.FSYNC_POLICY, HeapStudentStore.SYNC_INTERVAL_MILLIS);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            rollLocks[i] = new Object();
+        }
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "student-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void replayPut(Student student) {
+        students.put(student.getRollNumber(), student);
+    }
+
+    /**
+     * @return A copy of the stored student, so callers cannot change the shared snapshot.
+     */
+    @Override
+    public Student get(int rollNumber) {
+        Student student = students.get(rollNumber);
+        return student != null ? copyOf(student) : null;
+    }
+
+    @Override
+    public boolean contains(int rollNumber) {
+        return students.containsKey(rollNumber);
+    }
+
+    @Override
+    public void put(Student student) {
+        Student snapshot = copyOf(student);
+        int rollNumber = snapshot.getRollNumber();
+        rotationLock.readLock().lock();
+        try {
+            synchronized (lockFor(rollNumber)) {
+                Student previous = students.put(rollNumber, snapshot);
+                commit(journal.enqueuePut(snapshot), rollNumber, previous);
+            }
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    /**
+     * Applies the batch with writers excluded (readers are not blocked), so its preconditions,
+     * the in-memory changes and the single journal commit happen as one step.
+     */
+    @Override
+    public void apply(List<StudentChange> changes) {
+        List<StudentChange> snapshots = new ArrayList<>(changes.size());
+        for (StudentChange change : changes) {
+            snapshots.add(change.student == null ? change : StudentChange.put(copyOf(change.student)));
+        }
+        rotationLock.writeLock().lock();
+        try {
+            StudentChange.checkPreconditions(changes, students::containsKey);
+            List<Student> before = new ArrayList<>(changes.size()); // Undo log
+            for (StudentChange change : snapshots) {
+                before.add(change.student != null ? students.put(change.rollNumber, change.student) : students.remove(change.rollNumber));
+            }
+            try {
+                journal.appendBatch(snapshots);
+            } catch (IOException e) {
+                for (int i = snapshots.size() - 1; i >= 0; i--) {
+                    if (before.get(i) != null) {
+                        students.put(snapshots.get(i).rollNumber, before.get(i));
+                    } else {
+                        students.remove(snapshots.get(i).rollNumber);
+                    }
+                }
+                throw new UncheckedIOException("Could not save the batch; it was rolled back", e);
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public boolean insert(Student student) {
+        Student snapshot = copyOf(student);
+        int rollNumber = snapshot.getRollNumber();
+        rotationLock.readLock().lock();
+        try {
+            synchronized (lockFor(rollNumber)) {
+                if (students.putIfAbsent(rollNumber, snapshot) != null) {
+                    return false;
+                }
+                commit(journal.enqueuePut(snapshot), rollNumber, null);
+            }
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public boolean update(Student student) {
+        Student snapshot = copyOf(student);
+        int rollNumber = snapshot.getRollNumber();
+        rotationLock.readLock().lock();
+        try {
+            synchronized (lockFor(rollNumber)) {
+                Student previous = students.replace(rollNumber, snapshot);
+                if (previous == null) {
+                    return false;
+                }
+                commit(journal.enqueuePut(snapshot), rollNumber, previous);
+            }
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public boolean remove(int rollNumber) {
+        rotationLock.readLock().lock();
+        try {
+            synchronized (lockFor(rollNumber)) {
+                Student previous = students.remove(rollNumber);
+                if (previous == null) {
+                    return false;
+                }
+                commit(journal.enqueueRemove(rollNumber), rollNumber, previous);
+            }
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return students.size();
+    }
+
+    /**
+     * Weakly consistent: sees each student at most once, in the state it had at some point during the walk.
+     */
+    @Override
+    public void forEach(Consumer<Student> action) {
+        students.values().forEach(student -> action.accept(copyOf(student)));
+    }
+
+    /**
+     * Weakly consistent like forEach; skipped rows are not copied.
+     */
+    @Override
+    public int forEachInRange(int offset, int limit, Consumer<Student> action) {
+        Iterator<Student> rows = students.values().iterator();
+        for (int skipped = 0; skipped < offset && rows.hasNext(); skipped++) {
+            rows.next();
+        }
+        int emitted = 0;
+        while (emitted < limit && rows.hasNext()) {
+            action.accept(copyOf(rows.next()));
+            emitted++;
+        }
+        return emitted;
+    }
+
+    @Override
+    public void sync() {
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not save data: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not close journal: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Student copyOf(Student student) {
+        return new Student(student.getName(), student.getRollNumber(), student.getGrade());
+    }
+
+    private Object lockFor(int rollNumber) {
+        return rollLocks[rollNumber & (LOCK_STRIPES - 1)];
+    }
+
+    // Called with the student's lock held: writes the queued change, or puts back what the
+    // student was before it (null: absent) if the journal could not write it.
+    private void commit(long seq, int rollNumber, Student previous) {
+        try {
+            journal.commit(seq);
+        } catch (IOException e) {
+            if (previous != null) {
+                students.put(rollNumber, previous);
+            } else {
+                students.remove(rollNumber);
+            }
+            throw new UncheckedIOException("Could not save the change; it was rolled back", e);
+        }
+    }
+
+    /**
+     * Seals the log and writes a snapshot on the compactor thread, finishing an earlier failed
+     * compaction the same way HeapStudentStore.compact does; the exclusive lock makes "seal the
+     * log" and "copy the roster" one step with respect to writers.
+     */
+    private void maybeCompact() {
+        if (journal.recordsSinceRotate() < HeapStudentStore.COMPACT_AFTER_RECORDS || !compaction.tryStart()) {
+            return;
+        }
+        List<Student> snapshot;
+        boolean sealed;
+        rotationLock.writeLock().lock();
+        try {
+            sealed = journal.rotate();
+            snapshot = new ArrayList<>(students.values());
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not rotate journal: " + e.getMessage());
+            compaction.failed();
+            return;
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+        compactor.execute(() -> {
+            try {
+                HeapStudentStore.writeSnapshot(snapshot);
+                journal.deleteRotated();
+                compaction.succeeded();
+                if (!sealed) {
+                    System.out.println("[Info] Finished an earlier journal compaction that had failed.");
+                }
+            } catch (IOException e) {
+                System.out.println("[Persistence Error] Journal compaction failed, retrying later: " + e.getMessage());
+                compaction.failed();
+            }
+        });
+    }
+}
+
+/**
+ * Multi-threaded stress check for ConcurrentStudentStore (StudentManagementSystem --stress [seconds]).
+ *
+ * Writer threads each own a disjoint range of roll numbers and randomly insert, update, put and
+ * remove them, remembering what each of their students should end up as. Reader threads read
+ * random roll numbers and check that every student they see is a whole version written by one
+ * writer (name and grade always change together). At the end the store must match what the
+ * writers remember, both in memory and after reopening it from the journal.
+ * It uses the persistence files in the working directory, so it refuses to run next to real data.
+ */
+class StudentStoreStress {
+    private static final int KEYS_PER_WRITER = 2000;
+
+    static boolean run(int seconds) throws IOException, InterruptedException {
+        Path[] files = {
+                Paths.get(HeapStudentStore.FILE_NAME),
+                Paths.get(HeapStudentStore.LOG_FILE_NAME),
+                StudentJournal.rotatedPathFor(Paths.get(HeapStudentStore.LOG_FILE_NAME))};
+        for (Path file : files) {
+            if (Files.exists(file)) {
+                System.out.println("[Error] " + file + " exists; run the stress check in an empty directory.");
+                return false;
+            }
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int writers = Math.max(2, cores);
+        int readers = Math.max(2, cores);
+        List<Map<Integer, Student>> expected = new ArrayList<>();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        AtomicReference<String> failure = new AtomicReference<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ConcurrentStudentStore store = new ConcurrentStudentStore();
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                Map<Integer, Student> mine = new HashMap<>();
+                expected.add(mine);
+                int firstRoll = w * KEYS_PER_WRITER + 1;
+                threads.add(new Thread(() -> write(store, firstRoll, mine, deadline, writes, failure), "stress-writer-" + w));
+            }
+            int keys = writers * KEYS_PER_WRITER;
+            for (int r = 0; r < readers; r++) {
+                threads.add(new Thread(() -> read(store, keys, deadline, reads, failure), "stress-reader-" + r));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("[Stress] %d writers, %d readers, %d s: %,d writes/s, %,d reads/s%n",
+                    writers, readers, seconds, writes.get() / seconds, reads.get() / seconds);
+            if (failure.get() == null) {
+                verify(store, expected, "in memory", failure);
+            }
+        } finally {
+            store.close();
+        }
+        if (failure.get() == null) {
+            ConcurrentStudentStore reopened = new ConcurrentStudentStore();
+            try {
+                verify(reopened, expected, "after replay", failure);
+            } finally {
+                reopened.close();
+            }
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        if (failure.get() != null) {
+            System.out.println("[Stress] FAILED: " + failure.get());
+            return false;
+        }
+        System.out.println("[Stress] Passed: every read saw a whole student and the roster survived replay.");
+        return true;
+    }
+
+    private static void write(StudentStore store, int firstRoll, Map<Integer, Student> mine, long deadline,
+                              AtomicLong writes, AtomicReference<String> failure) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        for (int version = 0; System.nanoTime() < deadline && failure.get() == null; version++, count++) {
+            int roll = firstRoll + random.nextInt(KEYS_PER_WRITER);
+            Student student = versionOf(roll, version);
+            boolean present = mine.containsKey(roll);
+            boolean agreed;
+            switch (random.nextInt(4)) {
+                case 0:
+                    agreed = store.insert(student) != present;
+                    if (!present) {
+                        mine.put(roll, student);
+                    }
+                    break;
+                case 1:
+                    agreed = store.update(student) == present;
+                    if (present) {
+                        mine.put(roll, student);
+                    }
+                    break;
+                case 2:
+                    store.put(student);
+                    mine.put(roll, student);
+                    agreed = true;
+                    break;
+                default:
+                    agreed = store.remove(roll) == present;
+                    mine.remove(roll);
+            }
+            if (!agreed) {
+                failure.compareAndSet(null, "a write to roll " + roll + " disagreed with its previous state");
+            }
+        }
+        writes.addAndGet(count);
+    }
+
+    private static void read(StudentStore store, int keys, long deadline, AtomicLong reads, AtomicReference<String> failure) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        for (; System.nanoTime() < deadline && failure.get() == null; count++) {
+            int roll = 1 + random.nextInt(keys);
+            Student student = store.get(roll);
+            if (student != null && !isWhole(student, roll)) {
+                failure.compareAndSet(null, "read a torn student: " + student);
+            }
+        }
+        reads.addAndGet(count);
+    }
+
+    private static void verify(StudentStore store, List<Map<Integer, Student>> expected, String stage,
+                               AtomicReference<String> failure) {
+        int total = 0;
+        for (Map<Integer, Student> mine : expected) {
+            total += mine.size();
+            for (Student want : mine.values()) {
+                Student got = store.get(want.getRollNumber());
+                if (got == null || !got.getName().equals(want.getName()) || !got.getGrade().equals(want.getGrade())) {
+                    failure.compareAndSet(null, "roll " + want.getRollNumber() + " " + stage + " is " + got + ", expected " + want);
+                    return;
+                }
+            }
+        }
+        if (store.size() != total) {
+            failure.compareAndSet(null, "roster size " + stage + " is " + store.size() + ", expected " + total);
+        }
+    }
+
+    // Name and grade both encode the version, so a mix of two writes is detectable.
+    private static Student versionOf(int roll, int version) {
+        return new Student("S" + roll + "v" + version, roll, "G" + version % 97);
+    }
+
+    private static boolean isWhole(Student student, int roll) {
+        String name = student.getName();
+        String prefix = "S" + roll + "v";
+        if (student.getRollNumber() != roll || !name.startsWith(prefix)) {
+            return false;
+        }
+        int version = Integer.parseInt(name.substring(prefix.length()));
+        return student.getGrade().equals("G" + version % 97);
+    }
+}
+
+/**
+ * Throughput benchmark for the roster file format and listings (StudentManagementSystem --bench [students]).
+ *
+ * Saves and loads a generated roster with the binary StudentCodec file and with Java
+ * serialization of an ArrayList<Student>, the format used before it. Both saves are forced to
+ * disk, as the data file always is. Listings render every row as a table and as CSV through
+ * StudentTableRenderer, against the old println of a String.format per row; output is encoded
+ * and then discarded, so the terminal does not set the pace. Each case runs WARMUP_ROUNDS unmeasured rounds first and
+ * reports the best of ROUNDS measured ones. Files go to a temporary directory that is removed.
+ */
+class StudentBench {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    /** A measured operation; returns something derived from its work so it cannot be skipped. */
+    private interface Case {
+        long run() throws Exception;
+    }
+
+    private static long sink;
+
+    static void run(int count) throws Exception {
+        List<Student> roster = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            roster.add(new Student("Student " + i, i, i % 3 == 0 ? "A" : i % 3 == 1 ? "B+" : "C"));
+        }
+        Path directory = Files.createTempDirectory("sms-bench");
+        Path binary = directory.resolve(HeapStudentStore.FILE_NAME);
+        Path serialized = directory.resolve("students.ser");
+        try {
+            System.out.println("[Bench] " + count + " students");
+            report("save binary", count, () -> {
+                StudentCodec.writeFile(binary, roster);
+                return Files.size(binary);
+            });
+            report("save serialized", count, () -> {
+                writeSerialized(serialized, roster);
+                return Files.size(serialized);
+            });
+            report("load binary", count, () -> StudentCodec.readFile(binary).size());
+            report("load serialized", count, () -> readSerialized(serialized).size());
+            System.out.println("[Bench] File size: binary " + Files.size(binary) + " bytes, serialized "
+                    + Files.size(serialized) + " bytes");
+            report("list table", count, () -> {
+                StudentTableRenderer renderer = new StudentTableRenderer(
+                        new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()), StudentTableRenderer.BUFFER_CHARS));
+                roster.forEach(renderer::writeTableRow);
+                renderer.flush();
+                return roster.size();
+            });
+            report("list CSV", count, () -> {
+                StudentTableRenderer renderer = new StudentTableRenderer(
+                        new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()), StudentTableRenderer.BUFFER_CHARS));
+                roster.forEach(student -> renderer.writeDelimitedRow(student, StudentTableRenderer.ExportFormat.CSV));
+                renderer.flush();
+                return roster.size();
+            });
+            report("list String.format", count, () -> {
+                PrintStream out = new PrintStream(OutputStream.nullOutputStream(), true);
+                for (Student student : roster) {
+                    out.println(String.format("| %-20s | %-12d | %-10s |", student.getName(), student.getRollNumber(), student.getGrade()));
+                }
+                return roster.size();
+            });
+        } finally {
+            Files.deleteIfExists(binary);
+            Files.deleteIfExists(serialized);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Prints the best time of the case and its rate in students (rows) per second.
+    static void report(String name, int count, Case measured) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += measured.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += measured.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("[Bench] %-22s %10.2f ms %,14.0f rows/s%n", name, best / 1e6, count * 1e9 / best);
+    }
+
+    private static void writeSerialized(Path path, List<Student> roster) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(path.toFile());
+             ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(file))) {
+            oos.writeObject(new ArrayList<>(roster));
+            oos.flush();
+            file.getFD().sync();
+        }
+    }
+
+    @SuppressWarnings("unchecked") // The file holds the list written by writeSerialized
+    private static List<Student> readSerialized(Path path) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return (List<Student>) ois.readObject();
+        }
+    }
+}
+
+/**
+ * Decorator that maintains secondary indexes over any StudentStore:
+ * a sorted set of (lower-case name, roll number) keys for case-insensitive prefix search,
+ * and an inverted index from normalized grade to roll numbers.
+ * Queries cost time proportional to the number of matches, not the roster size.
+ *
+ * The indexes are built on the first query, so backends with constant-time startup keep it.
+ * Writes to the same roll number are serialized by a lock stripe; query results are
+ * re-checked against the backing store, so a concurrent write never yields a wrong match.
+ */
+class IndexedStudentStore implements StudentStore {
+    private static final int STRIPES = 64; // Power of two
+
+    private final StudentStore delegate;
+    private final Object[] stripes = new Object[STRIPES];
+    private final ReentrantReadWriteLock buildLock = new ReentrantReadWriteLock(); // Writers share; the first build is exclusive
+    private volatile boolean built;
+    private final ConcurrentSkipListSet<NameKey> byName = new ConcurrentSkipListSet<>();
+    private final ConcurrentHashMap<String, Set<Integer>> byGrade = new ConcurrentHashMap<>();
+
+    public IndexedStudentStore(StudentStore delegate) {
+        this.delegate = delegate;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // --- Queries ---
+
+    /**
+     * Finds students whose name starts with the given prefix, ignoring case.
+     * @return Matching students in name order.
+     */
+    public List<Student> findByNamePrefix(String prefix) {
+        ensureBuilt();
+        String normalized = normalizeName(prefix);
+        NameKey from = new NameKey(normalized, Integer.MIN_VALUE);
+        NameKey to = new NameKey(normalized + Character.MAX_VALUE, Integer.MIN_VALUE);
+        List<Student> matches = new ArrayList<>();
+        for (NameKey key : byName.subSet(from, true, to, false)) {
+            Student student = delegate.get(key.rollNumber);
+            if (student != null && normalizeName(student.getName()).startsWith(normalized)) {
+                matches.add(student);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Finds students with the given grade, ignoring case and surrounding spaces.
+     */
+    public List<Student> findByGrade(String grade) {
+        ensureBuilt();
+        String normalized = normalizeGrade(grade);
+        Set<Integer> rollNumbers = byGrade.get(normalized);
+        List<Student> matches = new ArrayList<>();
+        if (rollNumbers == null) {
+            return matches;
+        }
+        for (int rollNumber : rollNumbers) {
+            Student student = delegate.get(rollNumber);
+            if (student != null && normalizeGrade(student.getGrade()).equals(normalized)) {
+                matches.add(student);
+            }
+        }
+        return matches;
+    }
+
+    // --- StudentStore ---
+
+    @Override
+    public Student get(int rollNumber) {
+        return delegate.get(rollNumber);
+    }
+
+    @Override
+    public boolean contains(int rollNumber) {
+        return delegate.contains(rollNumber);
+    }
+
+    @Override
+    public void put(Student student) {
+        mutate(student.getRollNumber(), () -> {
+            Student old = delegate.get(student.getRollNumber());
+            delegate.put(student);
+            reindex(old, student);
+            return true;
+        });
+    }
+
+    @Override
+    public void apply(List<StudentChange> changes) {
+        buildLock.writeLock().lock(); // Excludes every stripe at once
+        try {
+            Map<Integer, Student> before = new LinkedHashMap<>(); // First state of each touched roll number
+            for (StudentChange change : changes) {
+                if (!before.containsKey(change.rollNumber)) {
+                    before.put(change.rollNumber, delegate.get(change.rollNumber));
+                }
+            }
+            delegate.apply(changes); // Throws with nothing applied, so the indexes stay as they are
+            before.forEach((rollNumber, old) -> reindex(old, delegate.get(rollNumber)));
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean insert(Student student) {
+        return mutate(student.getRollNumber(), () -> {
+            if (!delegate.insert(student)) {
+                return false;
+            }
+            reindex(null, student);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean update(Student student) {
+        return mutate(student.getRollNumber(), () -> {
+            Student old = delegate.get(student.getRollNumber());
+            if (!delegate.update(student)) {
+                return false;
+            }
+            reindex(old, student);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean remove(int rollNumber) {
+        return mutate(rollNumber, () -> {
+            Student old = delegate.get(rollNumber);
+            if (!delegate.remove(rollNumber)) {
+                return false;
+            }
+            reindex(old, null);
+            return true;
+        });
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Student> action) {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public int forEachInRange(int offset, int limit, Consumer<Student> action) {
+        return delegate.forEachInRange(offset, limit, action);
+    }
+
+    @Override
+    public void sync() {
+        delegate.sync();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    // --- Index maintenance ---
+
+    private boolean mutate(int rollNumber, BooleanSupplier change) {
+        buildLock.readLock().lock();
+        try {
+            synchronized (stripes[rollNumber & (STRIPES - 1)]) {
+                return change.getAsBoolean();
+            }
+        } finally {
+            buildLock.readLock().unlock();
+        }
+    }
+
+    // Called under the roll number's stripe; does nothing until the first query has built the indexes.
+    private void reindex(Student old, Student current) {
+        if (!built) {
+            return;
+        }
+        if (old != null) {
+            byName.remove(new NameKey(normalizeName(old.getName()), old.getRollNumber()));
+            Set<Integer> rollNumbers = byGrade.get(normalizeGrade(old.getGrade()));
+            if (rollNumbers != null) {
+                rollNumbers.remove(old.getRollNumber());
+            }
+        }
+        if (current != null) {
+            index(current);
+        }
+    }
+
+    private void index(Student student) {
+        byName.add(new NameKey(normalizeName(student.getName()), student.getRollNumber()));
+        byGrade.computeIfAbsent(normalizeGrade(student.getGrade()), grade -> ConcurrentHashMap.newKeySet())
+               .add(student.getRollNumber());
+    }
+
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        buildLock.writeLock().lock();
+        try {
+            if (!built) {
+                delegate.forEach(this::index);
+                built = true;
+            }
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    private static String normalizeName(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeGrade(String grade) {
+        return grade.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Name index entry, ordered by lower-case name and then roll number so equal names can coexist.
+     */
+    private static final class NameKey implements Comparable<NameKey> {
+        final String name;
+        final int rollNumber;
+
+        NameKey(String name, int rollNumber) {
+            this.name = name;
+            this.rollNumber = rollNumber;
+        }
+
+        @Override
+        public int compareTo(NameKey other) {
+            int byName = name.compareTo(other.name);
+            return byName != 0 ? byName : Integer.compare(rollNumber, other.rollNumber);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof NameKey && compareTo((NameKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + rollNumber;
+        }
+    }
+}
+
+/**
+ * Streaming renderer for student listings: console tables and CSV/TSV exports.
+ * Rows are assembled in one reusable buffer and written through a large buffered Writer,
+ * so rendering a row allocates nothing (no String.format, no per-row strings).
+ */
+class StudentTableRenderer {
+    static final String BORDER = "+----------------------+--------------+------------+";
+    static final String HEADER = "| Name                 | Roll Number  | Grade      |";
+    static final int BUFFER_CHARS = 1 << 16;
+    private static final int NAME_WIDTH = 20;
+    private static final int ROLL_WIDTH = 12;
+    private static final int GRADE_WIDTH = 10;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Column to order a listing by. */
+    enum SortColumn {
+        NONE(null),
+        NAME(Comparator.comparing(Student::getName, String.CASE_INSENSITIVE_ORDER)),
+        ROLL_NUMBER(Comparator.comparingInt(Student::getRollNumber)),
+        GRADE(Comparator.comparing(Student::getGrade, String.CASE_INSENSITIVE_ORDER));
+
+        final Comparator<Student> comparator;
+
+        SortColumn(Comparator<Student> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    /** Delimited file formats for exports. */
+    enum ExportFormat {
+        CSV(','), TSV('\t');
+
+        final char delimiter;
+
+        ExportFormat(char delimiter) {
+            this.delimiter = delimiter;
+        }
+    }
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[128];
+
+    StudentTableRenderer(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Renderer over System.out. Flushing it does not close the console stream.
+     */
+    static StudentTableRenderer console() {
+        return new StudentTableRenderer(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_CHARS));
+    }
+
+    void writeTableHeader() {
+        writeLine(BORDER);
+        writeLine(HEADER);
+        writeLine(BORDER);
+    }
+
+    void writeTableRow(Student student) {
+        line.setLength(0);
+        appendTableRow(line, student);
+        writeLine(line);
+    }
+
+    void writeTableFooter() {
+        writeLine(BORDER);
+    }
+
+    void writeDelimitedHeader(ExportFormat format) {
+        line.setLength(0);
+        line.append("Name").append(format.delimiter).append("Roll Number").append(format.delimiter).append("Grade");
+        writeLine(line);
+    }
+
+    void writeDelimitedRow(Student student, ExportFormat format) {
+        line.setLength(0);
+        appendField(line, student.getName(), format);
+        line.append(format.delimiter).append(student.getRollNumber()).append(format.delimiter);
+        appendField(line, student.getGrade(), format);
+        writeLine(line);
+    }
+
+    void writeLine(CharSequence text) {
+        try {
+            if (text instanceof String) {
+                out.write((String) text);
+            } else {
+                StringBuilder builder = (StringBuilder) text;
+                if (chars.length < builder.length()) {
+                    chars = new char[builder.length() * 2];
+                }
+                builder.getChars(0, builder.length(), chars, 0);
+                out.write(chars, 0, builder.length());
+            }
+            out.write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends "| name | roll | grade |" with the table's column widths (longer values are not cut).
+     */
+    static void appendTableRow(StringBuilder sb, Student student) {
+        sb.append("| ");
+        int start = sb.length();
+        sb.append(student.getName());
+        pad(sb, start, NAME_WIDTH);
+        sb.append(" | ");
+        start = sb.length();
+        sb.append(student.getRollNumber());
+        pad(sb, start, ROLL_WIDTH);
+        sb.append(" | ");
+        start = sb.length();
+        sb.append(student.getGrade());
+        pad(sb, start, GRADE_WIDTH);
+        sb.append(" |");
+    }
+
+    private static void pad(StringBuilder sb, int start, int width) {
+        for (int i = sb.length() - start; i < width; i++) {
+            sb.append(' ');
+        }
+    }
+
+    // CSV fields are quoted when needed; TSV has no quoting, so tabs and line breaks become spaces.
+    private static void appendField(StringBuilder sb, String value, ExportFormat format) {
+        if (format == ExportFormat.TSV) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                sb.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+            }
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+}
+
+/**
+ * Bulk import of students from a CSV/TSV file in the format written by the export
+ * (a "Name,Roll Number,Grade" header line, then one student per line).
+ *
+ * The file is streamed in chunks of lines. Each chunk is parsed and validated in parallel
+ * with the same rules as the Add Student menu, then checked in file order for roll numbers
+ * that are already registered or repeated within the file. Nothing is stored until the
+ * whole file has been read; the caller then applies the accepted students as one batch.
+ */
+class StudentBulkImporter {
+    private static final int CHUNK_LINES = 8192;
+
+    /** Students accepted for import and the reasons other rows were rejected. */
+    static final class Result {
+        final List<Student> accepted = new ArrayList<>();
+        final List<String> rejections = new ArrayList<>(); // "Line N: reason"
+    }
+
+    /**
+     * Reads and validates a file without changing the roster.
+     * @param path The file to read (UTF-8).
+     * @param format CSV or TSV.
+     * @param registered Tells whether a roll number is already in the roster.
+     */
+    static Result read(Path path, StudentTableRenderer.ExportFormat format, IntPredicate registered) throws IOException {
+        Result result = new Result();
+        RollNumberIndex seen = new RollNumberIndex(CHUNK_LINES); // Roll number -> line it was first seen on
+        String[] lines = new String[CHUNK_LINES]; // One record each; a quoted CSV field may span lines
+        int[] lineNumbers = new int[CHUNK_LINES];
+        Student[] students = new Student[CHUNK_LINES];
+        String[] errors = new String[CHUNK_LINES];
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            StringBuilder record = new StringBuilder();
+            int[] linesRead = new int[1];
+            int nextLineNumber = 1;
+            boolean firstChunk = true;
+            while (true) {
+                int count = 0;
+                String line;
+                while (count < CHUNK_LINES && (line = readRecord(reader, format, record, linesRead)) != null) {
+                    lineNumbers[count] = nextLineNumber;
+                    lines[count++] = line;
+                    nextLineNumber += linesRead[0];
+                }
+                if (count == 0) {
+                    break;
+                }
+                int skip = firstChunk && isHeader(lines[0], format) ? 1 : 0;
+                firstChunk = false;
+                int chunkSize = count;
+                IntStream.range(skip, chunkSize).parallel().forEach(i -> {
+                    students[i] = null;
+                    errors[i] = null;
+                    parse(lines[i], format, students, errors, i);
+                });
+                for (int i = skip; i < chunkSize; i++) {
+                    int lineNumber = lineNumbers[i];
+                    if (errors[i] != null) {
+                        result.rejections.add("Line " + lineNumber + ": " + errors[i]);
+                    } else if (students[i] == null) {
+                        continue; // Blank line
+                    } else if (registered.test(students[i].getRollNumber())) {
+                        result.rejections.add("Line " + lineNumber + ": A student with Roll Number "
+                                + students[i].getRollNumber() + " already exists.");
+                    } else if (seen.contains(students[i].getRollNumber())) {
+                        result.rejections.add("Line " + lineNumber + ": Roll Number " + students[i].getRollNumber()
+                                + " already appears on line " + seen.get(students[i].getRollNumber()) + ".");
+                    } else {
+                        seen.put(students[i].getRollNumber(), lineNumber);
+                        result.accepted.add(students[i]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads one record: up to the next line break outside a quoted CSV field, so names exported
+     * with embedded line breaks come back unchanged.
+     * @param linesRead Receives the number of physical lines the record spans.
+     * @return The record without its terminating line break, or null at the end of the file.
+     */
+    static String readRecord(BufferedReader reader, StudentTableRenderer.ExportFormat format,
+                             StringBuilder record, int[] linesRead) throws IOException {
+        record.setLength(0);
+        linesRead[0] = 1;
+        boolean quoted = false;
+        boolean fieldStart = true;
+        int c;
+        while ((c = reader.read()) >= 0) {
+            if (!quoted && (c == '\n' || c == '\r')) {
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                return record.toString();
+            }
+            if (c == '\n') {
+                linesRead[0]++;
+            }
+            if (format == StudentTableRenderer.ExportFormat.CSV && c == '"') {
+                if (quoted) {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        record.append('"'); // Escaped quote: stay inside the field
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else if (fieldStart) {
+                    quoted = true;
+                }
+            }
+            fieldStart = !quoted && c == format.delimiter;
+            record.append((char) c);
+        }
+        return record.length() == 0 ? null : record.toString();
+    }
+
+    // Only the exact header written by the export counts; a student named "Name..." is data.
+    private static boolean isHeader(String line, StudentTableRenderer.ExportFormat format) {
+        List<String> fields = splitFields(line, format);
+        return fields != null && fields.size() == 3
+                && fields.get(0).trim().equalsIgnoreCase("Name")
+                && fields.get(1).trim().equalsIgnoreCase("Roll Number")
+                && fields.get(2).trim().equalsIgnoreCase("Grade");
+    }
+
+    // Fills students[i] or errors[i]; leaves both null for a blank line.
+    private static void parse(String line, StudentTableRenderer.ExportFormat format, Student[] students, String[] errors, int i) {
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        List<String> fields = splitFields(line, format);
+        if (fields == null) {
+            errors[i] = "Unterminated quoted field.";
+            return;
+        }
+        if (fields.size() != 3) {
+            errors[i] = "Expected 3 fields (Name, Roll Number, Grade) but found " + fields.size() + ".";
+            return;
+        }
+        // Same rules as the Add Student menu
+        String name = fields.get(0).trim();
+        String grade = fields.get(2).trim();
+        int rollNumber;
+        try {
+            rollNumber = Integer.parseInt(fields.get(1).trim());
+        } catch (NumberFormatException e) {
+            rollNumber = -1;
+        }
+        if (name.isEmpty()) {
+            errors[i] = "Name cannot be empty.";
+        } else if (rollNumber <= 0) {
+            errors[i] = "Roll number must be a positive integer.";
+        } else if (grade.isEmpty()) {
+            errors[i] = "Grade cannot be empty.";
+        } else {
+            students[i] = new Student(name, rollNumber, grade);
+        }
+    }
+
+    /**
+     * Splits one line into fields. CSV fields may be quoted, with "" for a literal quote.
+     * @return The fields, or null if a quoted field is not closed.
+     */
+    static List<String> splitFields(String line, StudentTableRenderer.ExportFormat format) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == format.delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && format == StudentTableRenderer.ExportFormat.CSV && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
+
+/**
+ * One change in a batch applied through StudentStore.apply: a put or a removal.
+ * INSERT, UPDATE and REMOVE carry a precondition (roll number absent / present / present)
+ * that the store checks before applying anything; PUT always applies.
+ */
+class StudentChange {
+    enum Kind { PUT, INSERT, UPDATE, REMOVE }
+
+    final Kind kind;
+    final int rollNumber;
+    final Student student; // null for REMOVE
+
+    private StudentChange(Kind kind, int rollNumber, Student student) {
+        this.kind = kind;
+        this.rollNumber = rollNumber;
+        this.student = student;
+    }
+
+    static StudentChange put(Student student) {
+        return new StudentChange(Kind.PUT, student.getRollNumber(), student);
+    }
+
+    static StudentChange insert(Student student) {
+        return new StudentChange(Kind.INSERT, student.getRollNumber(), student);
+    }
+
+    static StudentChange update(Student student) {
+        return new StudentChange(Kind.UPDATE, student.getRollNumber(), student);
+    }
+
+    static StudentChange remove(int rollNumber) {
+        return new StudentChange(Kind.REMOVE, rollNumber, null);
+    }
+
+    /**
+     * Checks every precondition in order, taking earlier changes of the same batch into account.
+     * @param changes The batch.
+     * @param stored Tells whether a roll number is currently stored.
+     * @throws IllegalStateException describing the first change that cannot be applied.
+     */
+    static void checkPreconditions(List<StudentChange> changes, IntPredicate stored) {
+        RollNumberIndex pending = new RollNumberIndex(changes.size()); // Roll number -> 1 present, 0 absent
+        for (StudentChange change : changes) {
+            int state = pending.get(change.rollNumber);
+            boolean present = state >= 0 ? state == 1 : stored.test(change.rollNumber);
+            if (change.kind == Kind.INSERT && present) {
+                throw new IllegalStateException("A student with Roll Number " + change.rollNumber + " already exists.");
+            }
+            if ((change.kind == Kind.UPDATE || change.kind == Kind.REMOVE) && !present) {
+                throw new IllegalStateException("Student with Roll Number " + change.rollNumber + " not found.");
+            }
+            pending.put(change.rollNumber, change.student != null ? 1 : 0);
+        }
+    }
+}
+
+/**
+ * A group of roster changes committed together through StudentManager.
+ * Changes are only collected until commit(); the commit checks them all, applies them
+ * atomically in memory, persists them with a single save, and rolls everything back
+ * if any change is invalid or the save fails.
+ */
+class StudentBatch {
+    private final StudentManager manager;
+    private final List<StudentChange> changes = new ArrayList<>();
+    private boolean committed;
+
+    StudentBatch(StudentManager manager) {
+        this.manager = manager;
+    }
+
+    public StudentBatch add(Student student) {
+        return queue(StudentChange.insert(student));
+    }
+
+    public StudentBatch edit(int rollNumber, String newName, String newGrade) {
+        return queue(StudentChange.update(new Student(newName, rollNumber, newGrade)));
+    }
+
+    public StudentBatch remove(int rollNumber) {
+        return queue(StudentChange.remove(rollNumber));
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * Applies every queued change, or none of them.
+     * @return true if the batch was applied and saved, false if it was rolled back.
+     */
+    public boolean commit() {
+        if (committed) {
+            throw new IllegalStateException("Batch already committed");
+        }
+        committed = true;
+        return manager.commit(changes);
+    }
+
+    private StudentBatch queue(StudentChange change) {
+        if (committed) {
+            throw new IllegalStateException("Batch already committed");
+        }
+        changes.add(change);
+        return this;
+    }
+}
+
+/**
+ * 2. StudentManager Class: Manages the collection of students.
  * Renamed from StudentManagementSystem to resolve naming conflict with the main class.
+ *
+ * The roster itself lives in a StudentStore chosen with -Dsms.persistence:
+ * "snapshot" (default) or "journal" keep it on the heap, "mapped" keeps it in memory-mapped files,
+ * and "concurrent" keeps it in a thread-safe map. A StudentManager may be shared between
+ * threads when its store is thread-safe (only ConcurrentStudentStore is).
  */
 class StudentManager {
-    private List<Student> students;
-    private static final String FILE_NAME = "students.ser"; // File for persistence
+    private final IndexedStudentStore store;
 
     public StudentManager() {
-        // 4. Load student data when the system is initialized
-        this.students = loadStudents();
+        this(openStore(System.getProperty("sms.persistence", "snapshot")));
+    }
+
+    StudentManager(StudentStore store) {
+        this.store = new IndexedStudentStore(store);
+    }
+
+    private static StudentStore openStore(String mode) {
+        try {
+            if ("mapped".equalsIgnoreCase(mode)) {
+                return MappedStudentStore.open();
+            }
+            if ("concurrent".equalsIgnoreCase(mode)) {
+                return new ConcurrentStudentStore();
+            }
+        } catch (IOException e) {
+            System.out.println("[Persistence Error] Could not open " + mode + " storage, using the data file instead: " + e.getMessage());
+        }
+        return new HeapStudentStore("journal".equalsIgnoreCase(mode));
     }
 
     // --- Core Management Methods (2, 5) ---
@@ -71,12 +3236,20 @@ class StudentManager {
      * @param student The Student object to add.
      */
     public void addStudent(Student student) {
-        if (students.stream().anyMatch(s -> s.getRollNumber() == student.getRollNumber())) {
+        boolean added;
+        try {
+            added = store.insert(student); // Saved immediately after addition
+        } catch (IllegalArgumentException e) {
+            System.out.println("\n[Error] " + e.getMessage());
+            return;
+        } catch (UncheckedIOException e) {
+            System.out.println("\n[Persistence Error] " + e.getMessage() + ": " + e.getCause().getMessage());
+            return;
+        }
+        if (!added) {
             System.out.println("\n[Error] A student with Roll Number " + student.getRollNumber() + " already exists.");
             return;
         }
-        students.add(student);
-        saveStudents(); // Save immediately after addition
         System.out.println("\n[Success] Student added successfully: " + student.getName());
     }
 
@@ -85,8 +3258,14 @@ class StudentManager {
      * @param rollNumber The roll number of the student to remove.
      */
     public void removeStudent(int rollNumber) {
-        if (students.removeIf(s -> s.getRollNumber() == rollNumber)) {
-            saveStudents(); // Save immediately after removal
+        boolean removed;
+        try {
+            removed = store.remove(rollNumber); // Saved immediately after removal
+        } catch (UncheckedIOException e) {
+            System.out.println("\n[Persistence Error] " + e.getMessage() + ": " + e.getCause().getMessage());
+            return;
+        }
+        if (removed) {
             System.out.println("\n[Success] Student with Roll Number " + rollNumber + " removed successfully.");
         } else {
             System.out.println("\n[Error] Student with Roll Number " + rollNumber + " not found.");
@@ -99,81 +3278,214 @@ class StudentManager {
      * @return The found Student object, or null if not found.
      */
     public Student searchStudent(int rollNumber) {
-        return students.stream()
-                       .filter(s -> s.getRollNumber() == rollNumber)
-                       .findFirst()
-                       .orElse(null);
+        return store.get(rollNumber);
+    }
+
+    /**
+     * Finds students whose name starts with a prefix (case-insensitive).
+     * @param prefix The name prefix to search for.
+     * @return The matching students in name order (empty if none).
+     */
+    public List<Student> searchByNamePrefix(String prefix) {
+        return store.findByNamePrefix(prefix);
+    }
+
+    /**
+     * Finds all students with a grade (case-insensitive, e.g. "b+" matches "B+").
+     * @param grade The grade to search for.
+     * @return The matching students (empty if none).
+     */
+    public List<Student> searchByGrade(String grade) {
+        return store.findByGrade(grade);
     }
 
     /**
      * Displays all students in a formatted table.
      */
     public void displayAllStudents() {
-        if (students.isEmpty()) {
+        displayStudents(StudentTableRenderer.SortColumn.NONE, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Displays one page of students in a formatted table, streamed through a buffered writer.
+     * @param sort The column to order by (NONE keeps storage order and avoids materializing the roster).
+     * @param offset The number of rows to skip.
+     * @param limit The maximum number of rows to show.
+     * @return The number of rows shown.
+     */
+    public int displayStudents(StudentTableRenderer.SortColumn sort, int offset, int limit) {
+        int total = store.size();
+        if (total == 0) {
             System.out.println("\n--- No students currently registered. ---");
-            return;
+            return 0;
         }
 
-        System.out.println("\n--- Registered Students ---");
-        System.out.println("+----------------------+--------------+------------+");
-        System.out.println("| Name                 | Roll Number  | Grade      |");
-        System.out.println("+----------------------+--------------+------------+");
-        for (Student student : students) {
-            System.out.println(student);
+        StudentTableRenderer renderer = StudentTableRenderer.console();
+        try {
+            renderer.writeLine("");
+            renderer.writeLine("--- Registered Students ---");
+            renderer.writeTableHeader();
+            int shown = forEachInPage(sort, offset, limit, renderer::writeTableRow);
+            renderer.writeTableFooter();
+            if (shown < total) {
+                renderer.writeLine("Showing rows " + (shown == 0 ? 0 : offset + 1) + "-" + (offset + shown) + " of " + total + ".");
+            }
+            renderer.flush();
+            return shown;
+        } catch (UncheckedIOException e) {
+            System.out.println("[Error] Could not display students: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Streams the roster to a CSV or TSV file with a header line.
+     * @param path The file to write (replaced if it exists).
+     * @param format The delimited format.
+     * @param sort The column to order by.
+     * @return The number of students exported, or -1 if the file could not be written.
+     */
+    public int exportStudents(Path path, StudentTableRenderer.ExportFormat format, StudentTableRenderer.SortColumn sort) {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            StudentTableRenderer renderer = new StudentTableRenderer(new BufferedWriter(writer, StudentTableRenderer.BUFFER_CHARS));
+            renderer.writeDelimitedHeader(format);
+            int exported = forEachInPage(sort, 0, Integer.MAX_VALUE, student -> renderer.writeDelimitedRow(student, format));
+            renderer.flush();
+            return exported;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("[Error] Could not export students: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Imports students from a CSV or TSV file in the export format.
+     * Rows are validated like the Add Student menu; valid rows with new roll numbers are
+     * stored together in one batch (a single save), and the rest are reported back.
+     * @param path The file to import.
+     * @param format The delimited format.
+     * @return The import result, or null if the file could not be read.
+     */
+    public StudentBulkImporter.Result importStudents(Path path, StudentTableRenderer.ExportFormat format) {
+        StudentBulkImporter.Result result;
+        try {
+            result = StudentBulkImporter.read(path, format, store::contains);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("[Error] Could not read " + path + ": " + e.getMessage());
+            return null;
+        }
+        if (!result.accepted.isEmpty()) {
+            List<StudentChange> changes = new ArrayList<>(result.accepted.size());
+            result.accepted.forEach(student -> changes.add(StudentChange.insert(student)));
+            if (!commit(changes)) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    // --- Batches ---
+
+    /**
+     * Starts a batch of changes that are applied together by StudentBatch.commit().
+     * @return An empty batch bound to this manager.
+     */
+    public StudentBatch beginBatch() {
+        return new StudentBatch(this);
+    }
+
+    /**
+     * Applies a batch atomically with one save, or reports why it was rolled back.
+     * @return true if every change was applied.
+     */
+    boolean commit(List<StudentChange> changes) {
+        try {
+            store.apply(changes);
+            return true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            System.out.println("\n[Error] No changes were made: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            System.out.println("\n[Persistence Error] " + e.getMessage() + ": " + e.getCause().getMessage());
+        }
+        return false;
+    }
+
+    // Feeds rows [offset, offset + limit) of the (optionally sorted) roster to the action.
+    // Unsorted pages stop at the last row; sorted pages keep only the first offset + limit rows.
+    private int forEachInPage(StudentTableRenderer.SortColumn sort, int offset, int limit, Consumer<Student> action) {
+        if (sort == StudentTableRenderer.SortColumn.NONE) {
+            return store.forEachInRange(offset, limit, action);
+        }
+        long wanted = (long) offset + limit;
+        List<Student> rows;
+        if (wanted >= store.size()) {
+            rows = new ArrayList<>(store.size());
+            store.forEach(rows::add);
+            rows.sort(sort.comparator);
+        } else {
+            // Bounded max-heap of the best 'wanted' rows: O(n log k) time and O(k) memory
+            int k = (int) wanted;
+            Comparator<Student> order = sort.comparator;
+            PriorityQueue<Student> best = new PriorityQueue<>(k + 1, order.reversed());
+            store.forEach(student -> {
+                if (best.size() < k) {
+                    best.add(student);
+                } else if (order.compare(student, best.peek()) < 0) {
+                    best.poll();
+                    best.add(student);
+                }
+            });
+            rows = new ArrayList<>(best);
+            rows.sort(order);
         }
-        System.out.println("+----------------------+--------------+------------+");
+        int end = (int) Math.min(rows.size(), wanted);
+        for (int i = offset; i < end; i++) {
+            action.accept(rows.get(i));
+        }
+        return Math.max(0, end - offset);
     }
 
     /**
      * Edits the information of an existing student.
+     * The stored Student is replaced by an updated copy rather than modified in place.
      * @param rollNumber The roll number of the student to edit.
      * @param newName The new name.
      * @param newGrade The new grade.
      * @return true if successful, false otherwise.
      */
     public boolean editStudent(int rollNumber, String newName, String newGrade) {
-        Student student = searchStudent(rollNumber);
-        if (student != null) {
-            student.setName(newName);
-            student.setGrade(newGrade);
-            saveStudents(); // Save changes
-            System.out.println("\n[Success] Student Roll No. " + rollNumber + " updated.");
-            return true;
-        } else {
+        boolean updated;
+        try {
+            updated = store.update(new Student(newName, rollNumber, newGrade)); // Save changes
+        } catch (IllegalArgumentException e) {
+            System.out.println("\n[Error] " + e.getMessage());
+            return false;
+        } catch (UncheckedIOException e) {
+            System.out.println("\n[Persistence Error] " + e.getMessage() + ": " + e.getCause().getMessage());
+            return false;
+        }
+        if (!updated) {
             System.out.println("\n[Error] Student with Roll Number " + rollNumber + " not found.");
             return false;
         }
+        System.out.println("\n[Success] Student Roll No. " + rollNumber + " updated.");
+        return true;
     }
 
     // --- Persistence Methods (4) ---
 
     /**
-     * Saves the current list of students to a file using serialization.
+     * Forces all changes to disk.
      */
     public void saveStudents() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FILE_NAME))) {
-            oos.writeObject(students);
-        } catch (IOException e) {
-            System.out.println("[Persistence Error] Could not save data: " + e.getMessage());
-        }
+        store.sync();
     }
 
     /**
-     * Loads the list of students from the file.
-     * @return The loaded list of students, or a new empty list if file doesn't exist or load fails.
+     * Flushes pending changes and stops the background persistence threads.
      */
-    @SuppressWarnings("unchecked") // Suppressing warning for unchecked cast from Object to List<Student>
-    private List<Student> loadStudents() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(FILE_NAME))) {
-            System.out.println("\n[Info] Loading student data from file...");
-            return (List<Student>) ois.readObject();
-        } catch (FileNotFoundException e) {
-            System.out.println("[Info] Data file not found. Starting with an empty list.");
-            return new ArrayList<>();
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("[Persistence Error] Failed to load data. Starting with an empty list. Error: " + e.getMessage());
-            return new ArrayList<>();
-        }
+    public void close() {
+        store.close();
     }
 }
 
@@ -181,8 +3493,30 @@ class StudentManager {
  * 3, 5, 6. Main Class: Handles the console user interface, menu, and input validation.
  */
 public class StudentManagementSystem {
+    private static final int EXIT_CHOICE = 11;
+    private static final int MAX_REPORTED_REJECTIONS = 20; // Rejected import rows listed on screen
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--stress")) {
+            boolean passed = false;
+            try {
+                passed = StudentStoreStress.run(Math.max(1, args.length > 1 ? Integer.parseInt(args[1]) : 5));
+            } catch (IOException e) {
+                System.out.println("[Error] Stress check could not use its files: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(passed ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                StudentBench.run(Math.max(1, args.length > 1 ? Integer.parseInt(args[1]) : 200_000));
+            } catch (Exception e) {
+                System.out.println("[Error] Benchmark failed: " + e);
+                System.exit(1);
+            }
+            System.exit(0);
+        }
         Scanner scanner = new Scanner(System.in);
         // FIX: Renamed class and removed 'new new' syntax error.
         StudentManager system = new StudentManager(); 
@@ -212,22 +3546,38 @@ public class StudentManagementSystem {
                         searchStudentHandler(scanner, system);
                         break;
                     case 5:
-                        system.displayAllStudents();
+                        displayStudentsHandler(scanner, system);
                         break;
                     case 6:
+                        searchByNameHandler(scanner, system);
+                        break;
+                    case 7:
+                        searchByGradeHandler(scanner, system);
+                        break;
+                    case 8:
+                        exportStudentsHandler(scanner, system);
+                        break;
+                    case 9:
+                        importStudentsHandler(scanner, system);
+                        break;
+                    case 10:
+                        bulkGradeUpdateHandler(scanner, system);
+                        break;
+                    case EXIT_CHOICE:
                         System.out.println("\n[Info] Saving data and exiting. Goodbye!");
                         system.saveStudents();
                         break;
                     default:
-                        System.out.println("\n[Error] Invalid choice. Please select an option between 1 and 6.");
+                        System.out.println("\n[Error] Invalid choice. Please select an option between 1 and " + EXIT_CHOICE + ".");
                 }
             } catch (InputMismatchException e) {
                 System.out.println("\n[Error] Invalid input. Please enter a number for the menu option.");
                 scanner.nextLine(); // Clear buffer
                 choice = 0; // Reset choice to keep loop running
             }
-        } while (choice != 6);
+        } while (choice != EXIT_CHOICE);
 
+        system.close();
         scanner.close();
     }
 
@@ -241,7 +3591,12 @@ public class StudentManagementSystem {
         System.out.println("3. Remove Student");
         System.out.println("4. Search Student by Roll Number");
         System.out.println("5. Display All Students");
-        System.out.println("6. Exit Application");
+        System.out.println("6. Search Students by Name Prefix");
+        System.out.println("7. List Students by Grade");
+        System.out.println("8. Export Students to CSV/TSV File");
+        System.out.println("9. Import Students from CSV/TSV File");
+        System.out.println("10. Update Grades in Bulk");
+        System.out.println(EXIT_CHOICE + ". Exit Application");
         System.out.println("------------------------------------------------");
     }
 
@@ -315,11 +3670,11 @@ public class StudentManagementSystem {
 
             if (student != null) {
                 System.out.println("\n[Result] Student Found:");
-                System.out.println("+----------------------+--------------+------------+");
-                System.out.println("| Name                 | Roll Number  | Grade      |");
-                System.out.println("+----------------------+--------------+------------+");
+                System.out.println(StudentTableRenderer.BORDER);
+                System.out.println(StudentTableRenderer.HEADER);
+                System.out.println(StudentTableRenderer.BORDER);
                 System.out.println(student);
-                System.out.println("+----------------------+--------------+------------+");
+                System.out.println(StudentTableRenderer.BORDER);
             } else {
                 System.out.println("\n[Result] Student with Roll Number " + rollNumber + " not found.");
             }
@@ -329,6 +3684,172 @@ public class StudentManagementSystem {
         }
     }
 
+    private static void searchByNameHandler(Scanner scanner, StudentManager system) {
+        System.out.println("\n--- Search Students by Name ---");
+        System.out.print("Enter the start of the name: ");
+        String prefix = scanner.nextLine().trim();
+        if (prefix.isEmpty()) {
+            System.out.println("[Validation Error] Name prefix cannot be empty.");
+            return;
+        }
+        printResults(system.searchByNamePrefix(prefix), "No students found with a name starting with '" + prefix + "'.");
+    }
+
+    private static void searchByGradeHandler(Scanner scanner, StudentManager system) {
+        System.out.println("\n--- List Students by Grade ---");
+        System.out.print("Enter grade (e.g., A, B+, Pass): ");
+        String grade = scanner.nextLine().trim();
+        if (grade.isEmpty()) {
+            System.out.println("[Validation Error] Grade cannot be empty.");
+            return;
+        }
+        printResults(system.searchByGrade(grade), "No students found with grade " + grade + ".");
+    }
+
+    private static void printResults(List<Student> students, String emptyMessage) {
+        if (students.isEmpty()) {
+            System.out.println("\n[Result] " + emptyMessage);
+            return;
+        }
+        System.out.println("\n[Result] " + students.size() + " student(s) found:");
+        StudentTableRenderer renderer = StudentTableRenderer.console();
+        renderer.writeTableHeader();
+        students.forEach(renderer::writeTableRow);
+        renderer.writeTableFooter();
+        renderer.flush();
+    }
+
+    private static void displayStudentsHandler(Scanner scanner, StudentManager system) {
+        StudentTableRenderer.SortColumn sort = readSortColumn(scanner);
+        int pageSize = readOptionalPositiveInt(scanner, "Rows per page (leave blank to show all): ", Integer.MAX_VALUE);
+        int page = pageSize == Integer.MAX_VALUE ? 1 : readOptionalPositiveInt(scanner, "Page number (leave blank for 1): ", 1);
+        long offset = (long) (page - 1) * pageSize;
+        system.displayStudents(sort, (int) Math.min(offset, Integer.MAX_VALUE), pageSize);
+    }
+
+    private static void exportStudentsHandler(Scanner scanner, StudentManager system) {
+        System.out.println("\n--- Export Students ---");
+        System.out.print("Enter output file name (e.g., students.csv): ");
+        String fileName = scanner.nextLine().trim();
+        if (fileName.isEmpty()) {
+            System.out.println("[Validation Error] File name cannot be empty.");
+            return;
+        }
+        System.out.print("Format - CSV or TSV (leave blank for CSV): ");
+        String format = scanner.nextLine().trim();
+        StudentTableRenderer.ExportFormat exportFormat = format.equalsIgnoreCase("TSV")
+                ? StudentTableRenderer.ExportFormat.TSV : StudentTableRenderer.ExportFormat.CSV;
+        StudentTableRenderer.SortColumn sort = readSortColumn(scanner);
+        int exported = system.exportStudents(Paths.get(fileName), exportFormat, sort);
+        if (exported >= 0) {
+            System.out.println("\n[Success] Exported " + exported + " student(s) to " + fileName + ".");
+        }
+    }
+
+    private static void importStudentsHandler(Scanner scanner, StudentManager system) {
+        System.out.println("\n--- Import Students ---");
+        System.out.print("Enter input file name (Name, Roll Number, Grade per line): ");
+        String fileName = scanner.nextLine().trim();
+        if (fileName.isEmpty()) {
+            System.out.println("[Validation Error] File name cannot be empty.");
+            return;
+        }
+        System.out.print("Format - CSV or TSV (leave blank for CSV): ");
+        String format = scanner.nextLine().trim();
+        StudentTableRenderer.ExportFormat importFormat = format.equalsIgnoreCase("TSV")
+                ? StudentTableRenderer.ExportFormat.TSV : StudentTableRenderer.ExportFormat.CSV;
+        StudentBulkImporter.Result result = system.importStudents(Paths.get(fileName), importFormat);
+        if (result == null) {
+            return;
+        }
+        System.out.println("\n[Success] Imported " + result.accepted.size() + " student(s) from " + fileName + ".");
+        if (!result.rejections.isEmpty()) {
+            System.out.println("[Info] " + result.rejections.size() + " row(s) rejected:");
+            int shown = Math.min(result.rejections.size(), MAX_REPORTED_REJECTIONS);
+            for (int i = 0; i < shown; i++) {
+                System.out.println("  " + result.rejections.get(i));
+            }
+            if (shown < result.rejections.size()) {
+                System.out.println("  ... and " + (result.rejections.size() - shown) + " more.");
+            }
+        }
+    }
+
+    private static void bulkGradeUpdateHandler(Scanner scanner, StudentManager system) {
+        System.out.println("\n--- Update Grades in Bulk ---");
+        System.out.println("Enter one 'roll-number grade' pair per line (e.g., 12 B+). Leave a line blank to finish.");
+        StudentBatch batch = system.beginBatch();
+        while (true) {
+            System.out.print("> ");
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) {
+                break;
+            }
+            String[] parts = line.split("\\s+", 2);
+            int rollNumber;
+            try {
+                rollNumber = Integer.parseInt(parts[0]);
+            } catch (NumberFormatException e) {
+                rollNumber = -1;
+            }
+            if (rollNumber <= 0 || parts.length < 2) {
+                System.out.println("[Validation Error] Please enter a positive roll number followed by a grade.");
+                continue;
+            }
+            Student student = system.searchStudent(rollNumber);
+            if (student == null) {
+                System.out.println("[Validation Error] Student with Roll Number " + rollNumber + " not found. Line skipped.");
+                continue;
+            }
+            batch.edit(rollNumber, student.getName(), parts[1].trim());
+        }
+        if (batch.size() == 0) {
+            System.out.println("\n[Info] No grades to update.");
+            return;
+        }
+        if (batch.commit()) {
+            System.out.println("\n[Success] Updated " + batch.size() + " grade(s).");
+        }
+    }
+
+    private static StudentTableRenderer.SortColumn readSortColumn(Scanner scanner) {
+        while (true) {
+            System.out.print("Sort by - 1. Name, 2. Roll Number, 3. Grade (leave blank for no sorting): ");
+            String input = scanner.nextLine().trim();
+            switch (input) {
+                case "":
+                    return StudentTableRenderer.SortColumn.NONE;
+                case "1":
+                    return StudentTableRenderer.SortColumn.NAME;
+                case "2":
+                    return StudentTableRenderer.SortColumn.ROLL_NUMBER;
+                case "3":
+                    return StudentTableRenderer.SortColumn.GRADE;
+                default:
+                    System.out.println("[Validation Error] Please enter 1, 2, 3 or leave blank.");
+            }
+        }
+    }
+
+    private static int readOptionalPositiveInt(Scanner scanner, String prompt, int defaultValue) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                int value = Integer.parseInt(input);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the validation message
+            }
+            System.out.println("[Validation Error] Please enter a positive whole number.");
+        }
+    }
+
     private static void editStudentHandler(Scanner scanner, StudentManager system) {
         System.out.println("\n--- Edit Student Information ---");
         int rollNumber = -1;